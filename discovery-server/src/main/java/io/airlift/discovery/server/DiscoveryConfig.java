@@ -17,7 +17,10 @@ package io.airlift.discovery.server;
 
 import io.airlift.configuration.Config;
 import io.airlift.units.Duration;
+import io.airlift.units.MaxDuration;
+import io.airlift.units.MinDuration;
 
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
 import java.util.concurrent.TimeUnit;
@@ -26,6 +29,8 @@ public class DiscoveryConfig
 {
     private Duration maxAge = new Duration(30, TimeUnit.SECONDS);
     private Duration storeCacheTtl = new Duration(1, TimeUnit.SECONDS);
+    private Duration watchMaxWait = new Duration(1, TimeUnit.MINUTES);
+    private int changeHistorySize = ServiceIndex.DEFAULT_CHANGE_HISTORY_SIZE;
 
     @NotNull
     public Duration getMaxAge()
@@ -52,4 +57,32 @@ public class DiscoveryConfig
         this.storeCacheTtl = storeCacheTtl;
         return this;
     }
+
+    @NotNull
+    @MinDuration("1s")
+    @MaxDuration("10m")
+    public Duration getWatchMaxWait()
+    {
+        return watchMaxWait;
+    }
+
+    @Config("discovery.watch-max-wait")
+    public DiscoveryConfig setWatchMaxWait(Duration watchMaxWait)
+    {
+        this.watchMaxWait = watchMaxWait;
+        return this;
+    }
+
+    @Min(1)
+    public int getChangeHistorySize()
+    {
+        return changeHistorySize;
+    }
+
+    @Config("discovery.change-history-size")
+    public DiscoveryConfig setChangeHistorySize(int changeHistorySize)
+    {
+        this.changeHistorySize = changeHistorySize;
+        return this;
+    }
 }
@@ -28,6 +28,7 @@ import static io.airlift.configuration.ConfigBinder.configBinder;
 import static io.airlift.discovery.client.DiscoveryBinder.discoveryBinder;
 import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
 import static io.airlift.json.JsonCodecBinder.jsonCodecBinder;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class DiscoveryServerModule
         implements Module
@@ -37,22 +38,31 @@ public class DiscoveryServerModule
     {
         configBinder(binder).bindConfig(DiscoveryConfig.class);
         jaxrsBinder(binder).bind(ServiceResource.class);
+        binder.bind(ServiceResponseCache.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ServiceResponseCache.class).withGeneratedName();
+        binder.bind(ServiceWatcher.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ServiceWatcher.class).withGeneratedName();
 
         discoveryBinder(binder).bindHttpAnnouncement("discovery");
 
         jsonCodecBinder(binder).bindJsonCodec(Service.class);
         jsonCodecBinder(binder).bindListJsonCodec(Service.class);
+        jsonCodecBinder(binder).bindJsonCodec(Services.class);
 
         binder.bind(ServiceSelector.class).to(DiscoveryServiceSelector.class);
 
         // dynamic announcements
         jaxrsBinder(binder).bind(DynamicAnnouncementResource.class);
-        binder.bind(DynamicStore.class).to(ReplicatedDynamicStore.class).in(Scopes.SINGLETON);
+        binder.bind(ReplicatedDynamicStore.class).in(Scopes.SINGLETON);
+        binder.bind(DynamicStore.class).to(ReplicatedDynamicStore.class);
+        newExporter(binder).export(ReplicatedDynamicStore.class).withGeneratedName();
         binder.install(new ReplicatedStoreModule("dynamic", ForDynamicStore.class, InMemoryStore.class));
 
         // static announcements
         jaxrsBinder(binder).bind(StaticAnnouncementResource.class);
-        binder.bind(StaticStore.class).to(ReplicatedStaticStore.class).in(Scopes.SINGLETON);
+        binder.bind(ReplicatedStaticStore.class).in(Scopes.SINGLETON);
+        binder.bind(StaticStore.class).to(ReplicatedStaticStore.class);
+        newExporter(binder).export(ReplicatedStaticStore.class).withGeneratedName();
         binder.install(new ReplicatedStoreModule("static", ForStaticStore.class, PersistentStore.class));
         configBinder(binder).bindConfig(PersistentStoreConfig.class, "static");
     }
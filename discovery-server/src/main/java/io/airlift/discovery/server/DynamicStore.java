@@ -23,9 +23,17 @@ public interface DynamicStore
 
     void delete(Id<Node> nodeId);
 
+    ServiceIndex getIndex();
+
     Set<Service> getAll();
 
     Set<Service> get(String type);
 
     Set<Service> get(String type, String pool);
+
+    /**
+     * Registers a listener that is called after the store publishes a new index. The
+     * listener is called on the publishing thread, so it must not block or read the store.
+     */
+    void addIndexListener(Runnable listener);
 }
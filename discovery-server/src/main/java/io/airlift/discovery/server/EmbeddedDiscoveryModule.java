@@ -27,6 +27,7 @@ import static io.airlift.configuration.ConfigBinder.configBinder;
 import static io.airlift.discovery.client.DiscoveryBinder.discoveryBinder;
 import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
 import static io.airlift.json.JsonCodecBinder.jsonCodecBinder;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class EmbeddedDiscoveryModule
         extends AbstractConfigurationAwareModule
@@ -36,17 +37,24 @@ public class EmbeddedDiscoveryModule
     {
         configBinder(binder).bindConfig(DiscoveryConfig.class);
         jaxrsBinder(binder).bind(ServiceResource.class);
+        binder.bind(ServiceResponseCache.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ServiceResponseCache.class).withGeneratedName();
+        binder.bind(ServiceWatcher.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ServiceWatcher.class).withGeneratedName();
 
         discoveryBinder(binder).bindHttpAnnouncement("discovery");
 
         jsonCodecBinder(binder).bindJsonCodec(Service.class);
         jsonCodecBinder(binder).bindListJsonCodec(Service.class);
+        jsonCodecBinder(binder).bindJsonCodec(Services.class);
 
         binder.bind(ServiceSelector.class).to(DiscoveryServiceSelector.class);
         binder.bind(StaticStore.class).to(EmptyStaticStore.class);
 
         jaxrsBinder(binder).bind(DynamicAnnouncementResource.class);
-        binder.bind(DynamicStore.class).to(ReplicatedDynamicStore.class).in(Scopes.SINGLETON);
+        binder.bind(ReplicatedDynamicStore.class).in(Scopes.SINGLETON);
+        binder.bind(DynamicStore.class).to(ReplicatedDynamicStore.class);
+        newExporter(binder).export(ReplicatedDynamicStore.class).withGeneratedName();
         binder.install(new ReplicatedStoreModule("dynamic", ForDynamicStore.class, InMemoryStore.class));
     }
 
@@ -65,12 +73,24 @@ public class EmbeddedDiscoveryModule
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public ServiceIndex getIndex()
+        {
+            return ServiceIndex.EMPTY;
+        }
+
         @Override
         public Set<Service> getAll()
         {
             return ImmutableSet.of();
         }
 
+        @Override
+        public void addIndexListener(Runnable listener)
+        {
+            // the index never changes
+        }
+
         @Override
         public Set<Service> get(String type)
         {
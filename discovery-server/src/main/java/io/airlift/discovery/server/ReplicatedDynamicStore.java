@@ -15,26 +15,31 @@
  */
 package io.airlift.discovery.server;
 
-import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
 import com.google.inject.Inject;
 import io.airlift.discovery.store.DistributedStore;
 import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.Version;
 import io.airlift.json.JsonCodec;
 import io.airlift.units.Duration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Predicates.and;
-import static com.google.common.base.Suppliers.memoizeWithExpiration;
-import static com.google.common.collect.Iterables.filter;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static io.airlift.discovery.server.DynamicServiceAnnouncement.toServiceWith;
-import static io.airlift.discovery.server.Service.matchesPool;
-import static io.airlift.discovery.server.Service.matchesType;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class ReplicatedDynamicStore
         implements DynamicStore
@@ -42,7 +47,13 @@ public class ReplicatedDynamicStore
     private final DistributedStore store;
     private final Duration maxAge;
     private final JsonCodec<List<Service>> codec;
-    private final Supplier<Set<Service>> servicesSupplier;
+    private final ServiceIndexRefresher refresher;
+
+    // decoded values of the entries seen by the last refresh
+    @GuardedBy("this")
+    private Map<ByteBuffer, DecodedEntry> decodedEntries = new HashMap<>();
+    private final AtomicLong decodes = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
 
     @Inject
     public ReplicatedDynamicStore(@ForDynamicStore DistributedStore store, DiscoveryConfig config, JsonCodec<List<Service>> codec)
@@ -51,7 +62,41 @@ public class ReplicatedDynamicStore
         this.maxAge = checkNotNull(config, "config is null").getMaxAge();
         this.codec = checkNotNull(codec, "codec is null");
 
-        servicesSupplier = cachingSupplier(servicesSupplier(), config.getStoreCacheTtl());
+        refresher = new ServiceIndexRefresher("dynamic", this::loadServices, config.getStoreCacheTtl(), config.getChangeHistorySize());
+
+        // announcements and deletes invalidate the snapshot; expired entries are dropped by the periodic refresh
+        store.addListener(changes -> refresher.invalidate(), directExecutor());
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        refresher.start();
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        refresher.stop();
+    }
+
+    @Managed
+    @Nested
+    public ServiceIndexRefresher getRefresher()
+    {
+        return refresher;
+    }
+
+    @Managed
+    public long getDecodes()
+    {
+        return decodes.get();
+    }
+
+    @Managed
+    public long getReuses()
+    {
+        return reuses.get();
     }
 
     @Override
@@ -73,45 +118,83 @@ public class ReplicatedDynamicStore
         store.delete(nodeId.getBytes());
     }
 
+    @Override
+    public ServiceIndex getIndex()
+    {
+        return refresher.get();
+    }
+
+    @Override
+    public void addIndexListener(Runnable listener)
+    {
+        refresher.addListener(listener);
+    }
+
     @Override
     public Set<Service> getAll()
     {
-        return servicesSupplier.get();
+        return refresher.get().getAll();
     }
 
     @Override
     public Set<Service> get(String type)
     {
-        return ImmutableSet.copyOf(filter(getAll(), matchesType(type)));
+        return refresher.get().get(type);
     }
 
     @Override
     public Set<Service> get(String type, String pool)
     {
-        return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
+        return refresher.get().get(type, pool);
     }
 
-    private Supplier<Set<Service>> servicesSupplier()
+    /**
+     * Decodes the services of all entries. Only entries whose version or value changed
+     * since the previous call are decoded, so the cost is proportional to the churn.
+     */
+    private synchronized List<Service> loadServices()
     {
-        return new Supplier<Set<Service>>()
-        {
-            @Override
-            public Set<Service> get()
-            {
-                ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
-                for (Entry entry : store.getAll()) {
-                    builder.addAll(codec.fromJson(entry.getValue()));
-                }
-                return builder.build();
+        Map<ByteBuffer, DecodedEntry> decoded = new HashMap<>(decodedEntries.size());
+        ImmutableList.Builder<Service> builder = ImmutableList.builder();
+        for (Entry entry : store.getAll()) {
+            ByteBuffer key = ByteBuffer.wrap(entry.getKey());
+            DecodedEntry decodedEntry = decodedEntries.get(key);
+            if (decodedEntry != null && decodedEntry.matches(entry)) {
+                reuses.incrementAndGet();
+            }
+            else {
+                decodedEntry = new DecodedEntry(entry.getVersion(), entry.getValue(), codec.fromJson(entry.getValue()));
+                decodes.incrementAndGet();
             }
-        };
+            decoded.put(key, decodedEntry);
+            builder.addAll(decodedEntry.getServices());
+        }
+        decodedEntries = decoded;
+        return builder.build();
     }
 
-    private static <T> Supplier<T> cachingSupplier(Supplier<T> supplier, Duration ttl)
+    private static class DecodedEntry
     {
-        if (ttl.toMillis() == 0) {
-            return supplier;
+        private final Version version;
+        private final byte[] value;
+        private final List<Service> services;
+
+        private DecodedEntry(Version version, byte[] value, List<Service> services)
+        {
+            this.version = version;
+            this.value = value;
+            this.services = ImmutableList.copyOf(services);
+        }
+
+        public boolean matches(Entry entry)
+        {
+            return version.equals(entry.getVersion()) &&
+                    (value == entry.getValue() || Arrays.equals(value, entry.getValue()));
+        }
+
+        public List<Service> getServices()
+        {
+            return services;
         }
-        return memoizeWithExpiration(supplier, ttl.toMillis(), MILLISECONDS);
     }
 }
@@ -15,31 +15,59 @@
  */
 package io.airlift.discovery.server;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import io.airlift.discovery.store.DistributedStore;
 import io.airlift.discovery.store.Entry;
 import io.airlift.json.JsonCodec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
+import java.util.List;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Predicates.and;
-import static com.google.common.collect.Iterables.filter;
-import static io.airlift.discovery.server.Service.matchesPool;
-import static io.airlift.discovery.server.Service.matchesType;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
 public class ReplicatedStaticStore
         implements StaticStore
 {
     private final DistributedStore store;
     private final JsonCodec<Service> codec;
+    private final ServiceIndexRefresher refresher;
 
     @Inject
-    public ReplicatedStaticStore(@ForStaticStore DistributedStore store, JsonCodec<Service> codec)
+    public ReplicatedStaticStore(@ForStaticStore DistributedStore store, DiscoveryConfig config, JsonCodec<Service> codec)
     {
         this.store = checkNotNull(store, "store is null");
         this.codec = checkNotNull(codec, "codec is null");
+        checkNotNull(config, "config is null");
+
+        refresher = new ServiceIndexRefresher("static", this::loadServices, config.getStoreCacheTtl(), config.getChangeHistorySize());
+
+        // local writes, replicated writes and expirations all invalidate the snapshot
+        store.addListener(changes -> refresher.invalidate(), directExecutor());
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        refresher.start();
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        refresher.stop();
+    }
+
+    @Managed
+    @Nested
+    public ServiceIndexRefresher getRefresher()
+    {
+        return refresher;
     }
 
     @Override
@@ -58,25 +86,41 @@ public class ReplicatedStaticStore
     }
 
     @Override
-    public Set<Service> getAll()
+    public ServiceIndex getIndex()
     {
-        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
-        for (Entry entry : store.getAll()) {
-            builder.add(codec.fromJson(entry.getValue()));
-        }
+        return refresher.get();
+    }
 
-        return builder.build();
+    @Override
+    public void addIndexListener(Runnable listener)
+    {
+        refresher.addListener(listener);
+    }
+
+    @Override
+    public Set<Service> getAll()
+    {
+        return refresher.get().getAll();
     }
 
     @Override
     public Set<Service> get(String type)
     {
-        return ImmutableSet.copyOf(filter(getAll(), matchesType(type)));
+        return refresher.get().get(type);
     }
 
     @Override
     public Set<Service> get(String type, String pool)
     {
-        return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
+        return refresher.get().get(type, pool);
+    }
+
+    private List<Service> loadServices()
+    {
+        ImmutableList.Builder<Service> builder = ImmutableList.builder();
+        for (Entry entry : store.getAll()) {
+            builder.add(codec.fromJson(entry.getValue()));
+        }
+        return builder.build();
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableSet;
+
+import com.google.errorprone.annotations.Immutable;
+
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Services changed since the generation identified by a token. If {@code full} is set,
+ * the token was not usable and {@code services} holds all services, which replace
+ * everything the caller had. Otherwise {@code services} holds the services added or
+ * changed, and {@code removed} the ids of the services removed. The returned token is
+ * passed as {@code since} on the next request.
+ */
+@Immutable
+public class ServiceDelta
+{
+    private final String environment;
+    private final String token;
+    private final boolean full;
+    private final Set<Service> services;
+    private final Set<Id<Service>> removed;
+
+    @JsonCreator
+    public ServiceDelta(
+            @JsonProperty("environment") String environment,
+            @JsonProperty("token") String token,
+            @JsonProperty("full") boolean full,
+            @JsonProperty("services") Set<Service> services,
+            @JsonProperty("removed") Set<Id<Service>> removed)
+    {
+        this.environment = checkNotNull(environment, "environment is null");
+        this.token = checkNotNull(token, "token is null");
+        this.full = full;
+        this.services = ImmutableSet.copyOf(checkNotNull(services, "services is null"));
+        this.removed = ImmutableSet.copyOf(checkNotNull(removed, "removed is null"));
+    }
+
+    @JsonProperty
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    @JsonProperty
+    public String getToken()
+    {
+        return token;
+    }
+
+    @JsonProperty
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    @JsonProperty
+    public Set<Service> getServices()
+    {
+        return services;
+    }
+
+    @JsonProperty
+    public Set<Id<Service>> getRemoved()
+    {
+        return removed;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ServiceDelta that = (ServiceDelta) o;
+        return full == that.full &&
+                environment.equals(that.environment) &&
+                token.equals(that.token) &&
+                services.equals(that.services) &&
+                removed.equals(that.removed);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(environment, token, full, services, removed);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ServiceDelta{" +
+                "environment='" + environment + '\'' +
+                ", token='" + token + '\'' +
+                ", full=" + full +
+                ", services=" + services +
+                ", removed=" + removed +
+                '}';
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.annotations.Immutable;
+import jakarta.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable snapshot of a set of services, indexed by type and by type and pool.
+ * Lookups return shared immutable sets, so callers must not copy them.
+ * <p>
+ * Every snapshot has a generation, and so does every type and (type, pool) group
+ * within it. A group keeps its generation (and its set) across {@link #update} calls
+ * until its content changes, so generations can be used to detect changes of a
+ * single lookup result. Groups that do not exist have generation 0.
+ * <p>
+ * The changes made by the most recent updates are kept, so callers that saw an older
+ * generation can fetch only the services added, changed or removed since then. How many
+ * updates are kept is set by the empty index an index was built from.
+ */
+@Immutable
+public final class ServiceIndex
+{
+    public static final int DEFAULT_CHANGE_HISTORY_SIZE = 100;
+    public static final ServiceIndex EMPTY = empty(DEFAULT_CHANGE_HISTORY_SIZE);
+
+    private static final Group EMPTY_GROUP = new Group(ImmutableSet.of(), 0);
+
+    private final int changeHistorySize;
+    private final long generation;
+    private final Map<Id<Service>, Service> servicesById;
+    private final Group all;
+    private final Map<String, Group> byType;
+    private final Map<String, Map<String, Group>> byTypeAndPool;
+    // the changes made by the most recent updates, oldest first
+    private final List<Delta> changes;
+
+    private ServiceIndex(
+            int changeHistorySize,
+            long generation,
+            Map<Id<Service>, Service> servicesById,
+            Group all,
+            Map<String, Group> byType,
+            Map<String, Map<String, Group>> byTypeAndPool,
+            List<Delta> changes)
+    {
+        this.changeHistorySize = changeHistorySize;
+        this.generation = generation;
+        this.servicesById = servicesById;
+        this.all = all;
+        this.byType = byType;
+        this.byTypeAndPool = byTypeAndPool;
+        this.changes = changes;
+    }
+
+    /**
+     * Returns an empty index whose updates keep the changes of the specified number of
+     * most recent updates.
+     */
+    public static ServiceIndex empty(int changeHistorySize)
+    {
+        checkArgument(changeHistorySize > 0, "changeHistorySize must be positive");
+        return new ServiceIndex(changeHistorySize, 0, ImmutableMap.of(), new Group(ImmutableSet.of(), 0), ImmutableMap.of(), ImmutableMap.of(), ImmutableList.of());
+    }
+
+    public static ServiceIndex of(Iterable<Service> services)
+    {
+        return EMPTY.update(services);
+    }
+
+    /**
+     * Returns an index of the specified services. If the services are the same as the
+     * services in this index, this index is returned. Otherwise, groups whose content
+     * changed get the next generation and all other groups are carried over.
+     */
+    public ServiceIndex update(Iterable<Service> services)
+    {
+        checkNotNull(services, "services is null");
+
+        Map<Id<Service>, Service> newServicesById = new LinkedHashMap<>();
+        for (Service service : services) {
+            newServicesById.put(service.getId(), service);
+        }
+
+        Set<String> changedTypes = new HashSet<>();
+        Set<TypeAndPool> changedPools = new HashSet<>();
+        ImmutableSet.Builder<Service> added = ImmutableSet.builder();
+        ImmutableSet.Builder<Id<Service>> removed = ImmutableSet.builder();
+        for (Service service : newServicesById.values()) {
+            Service old = servicesById.get(service.getId());
+            if (old == null || !isSame(old, service)) {
+                added.add(service);
+                markChanged(service, changedTypes, changedPools);
+                if (old != null) {
+                    markChanged(old, changedTypes, changedPools);
+                }
+            }
+        }
+        for (Service old : servicesById.values()) {
+            if (!newServicesById.containsKey(old.getId())) {
+                removed.add(old.getId());
+                markChanged(old, changedTypes, changedPools);
+            }
+        }
+
+        if (changedTypes.isEmpty()) {
+            return this;
+        }
+
+        long newGeneration = generation + 1;
+
+        // only build sets for groups that changed
+        Map<String, ImmutableSet.Builder<Service>> typeBuilders = new HashMap<>();
+        Map<String, Map<String, ImmutableSet.Builder<Service>>> poolBuilders = new HashMap<>();
+        for (Service service : newServicesById.values()) {
+            if (changedTypes.contains(service.getType())) {
+                typeBuilders.computeIfAbsent(service.getType(), type -> ImmutableSet.builder())
+                        .add(service);
+            }
+            if (changedPools.contains(new TypeAndPool(service.getType(), service.getPool()))) {
+                poolBuilders.computeIfAbsent(service.getType(), type -> new HashMap<>())
+                        .computeIfAbsent(service.getPool(), pool -> ImmutableSet.builder())
+                        .add(service);
+            }
+        }
+
+        Map<String, Group> newByType = new HashMap<>(byType);
+        newByType.keySet().removeAll(changedTypes);
+        for (Map.Entry<String, ImmutableSet.Builder<Service>> entry : typeBuilders.entrySet()) {
+            newByType.put(entry.getKey(), new Group(entry.getValue().build(), newGeneration));
+        }
+
+        Map<String, Map<String, Group>> newByTypeAndPool = new HashMap<>();
+        for (Map.Entry<String, Map<String, Group>> typeEntry : byTypeAndPool.entrySet()) {
+            newByTypeAndPool.put(typeEntry.getKey(), new HashMap<>(typeEntry.getValue()));
+        }
+        for (TypeAndPool changed : changedPools) {
+            Map<String, Group> byPool = newByTypeAndPool.get(changed.getType());
+            if (byPool != null) {
+                byPool.remove(changed.getPool());
+            }
+        }
+        for (Map.Entry<String, Map<String, ImmutableSet.Builder<Service>>> typeEntry : poolBuilders.entrySet()) {
+            Map<String, Group> byPool = newByTypeAndPool.computeIfAbsent(typeEntry.getKey(), type -> new HashMap<>());
+            for (Map.Entry<String, ImmutableSet.Builder<Service>> poolEntry : typeEntry.getValue().entrySet()) {
+                byPool.put(poolEntry.getKey(), new Group(poolEntry.getValue().build(), newGeneration));
+            }
+        }
+
+        ImmutableMap.Builder<String, Map<String, Group>> byTypeAndPoolBuilder = ImmutableMap.builder();
+        for (Map.Entry<String, Map<String, Group>> typeEntry : newByTypeAndPool.entrySet()) {
+            if (!typeEntry.getValue().isEmpty()) {
+                byTypeAndPoolBuilder.put(typeEntry.getKey(), ImmutableMap.copyOf(typeEntry.getValue()));
+            }
+        }
+
+        ImmutableList.Builder<Delta> newChanges = ImmutableList.builder();
+        newChanges.addAll(changes.subList(Math.max(0, changes.size() - changeHistorySize + 1), changes.size()));
+        newChanges.add(new Delta(added.build(), removed.build()));
+
+        return new ServiceIndex(
+                changeHistorySize,
+                newGeneration,
+                ImmutableMap.copyOf(newServicesById),
+                new Group(ImmutableSet.copyOf(newServicesById.values()), newGeneration),
+                ImmutableMap.copyOf(newByType),
+                byTypeAndPoolBuilder.buildOrThrow(),
+                newChanges.build());
+    }
+
+    /**
+     * Returns the services added or changed and the ids of the services removed between
+     * the specified generation and this one, or null if the changes since that generation
+     * are no longer known.
+     */
+    @Nullable
+    public Delta getChangesSince(long generation)
+    {
+        // the generation comes from the client, so check it before computing the offset
+        if (generation < 0 || generation > this.generation || this.generation - generation > changes.size()) {
+            return null;
+        }
+        int first = changes.size() - (int) (this.generation - generation);
+
+        Map<Id<Service>, Service> added = new LinkedHashMap<>();
+        Set<Id<Service>> removed = new HashSet<>();
+        for (Delta change : changes.subList(first, changes.size())) {
+            for (Service service : change.getAdded()) {
+                added.put(service.getId(), service);
+                removed.remove(service.getId());
+            }
+            for (Id<Service> id : change.getRemoved()) {
+                added.remove(id);
+                removed.add(id);
+            }
+        }
+        return new Delta(ImmutableSet.copyOf(added.values()), ImmutableSet.copyOf(removed));
+    }
+
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    public long getGeneration(String type)
+    {
+        return getGroup(type).getGeneration();
+    }
+
+    public long getGeneration(String type, String pool)
+    {
+        return getGroup(type, pool).getGeneration();
+    }
+
+    public Set<Service> getAll()
+    {
+        return all.getServices();
+    }
+
+    public Set<Service> get(String type)
+    {
+        return getGroup(type).getServices();
+    }
+
+    public Set<Service> get(String type, String pool)
+    {
+        return getGroup(type, pool).getServices();
+    }
+
+    private Group getGroup(String type)
+    {
+        checkNotNull(type, "type is null");
+
+        Group group = byType.get(type);
+        if (group == null) {
+            return EMPTY_GROUP;
+        }
+        return group;
+    }
+
+    private Group getGroup(String type, String pool)
+    {
+        checkNotNull(type, "type is null");
+        checkNotNull(pool, "pool is null");
+
+        Map<String, Group> byPool = byTypeAndPool.get(type);
+        if (byPool == null) {
+            return EMPTY_GROUP;
+        }
+
+        Group group = byPool.get(pool);
+        if (group == null) {
+            return EMPTY_GROUP;
+        }
+        return group;
+    }
+
+    private static void markChanged(Service service, Set<String> changedTypes, Set<TypeAndPool> changedPools)
+    {
+        changedTypes.add(service.getType());
+        changedPools.add(new TypeAndPool(service.getType(), service.getPool()));
+    }
+
+    // Service.equals only compares ids
+    private static boolean isSame(Service a, Service b)
+    {
+        if (a == b) {
+            return true;
+        }
+        return Objects.equals(a.getNodeId(), b.getNodeId()) &&
+                a.getType().equals(b.getType()) &&
+                a.getPool().equals(b.getPool()) &&
+                a.getLocation().equals(b.getLocation()) &&
+                a.getProperties().equals(b.getProperties());
+    }
+
+    @Immutable
+    public static final class Delta
+    {
+        private final Set<Service> added;
+        private final Set<Id<Service>> removed;
+
+        private Delta(Set<Service> added, Set<Id<Service>> removed)
+        {
+            this.added = added;
+            this.removed = removed;
+        }
+
+        public Set<Service> getAdded()
+        {
+            return added;
+        }
+
+        public Set<Id<Service>> getRemoved()
+        {
+            return removed;
+        }
+    }
+
+    @Immutable
+    private static final class Group
+    {
+        private final Set<Service> services;
+        private final long generation;
+
+        private Group(Set<Service> services, long generation)
+        {
+            this.services = services;
+            this.generation = generation;
+        }
+
+        public Set<Service> getServices()
+        {
+            return services;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+    }
+
+    @Immutable
+    private static final class TypeAndPool
+    {
+        private final String type;
+        private final String pool;
+
+        private TypeAndPool(String type, String pool)
+        {
+            this.type = type;
+            this.pool = pool;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public String getPool()
+        {
+            return pool;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TypeAndPool that = (TypeAndPool) o;
+            return type.equals(that.type) && pool.equals(that.pool);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(type, pool);
+        }
+    }
+}
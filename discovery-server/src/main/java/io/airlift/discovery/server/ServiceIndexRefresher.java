@@ -0,0 +1,296 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.log.Logger;
+import io.airlift.stats.TimeStat;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Keeps a {@link ServiceIndex} of the services returned by a loader. Rebuilds run on a
+ * background thread: once started, the index is rebuilt every {@code ttl}, and
+ * {@link #invalidate} requests an immediate rebuild. Readers get the last published
+ * snapshot without blocking, unless it was built before the last invalidation: then they
+ * wait for the requested rebuild, so a read after a local change sees the change. Only
+ * reads before the first snapshot is published build the index themselves. If the ttl is
+ * zero, the index is not cached: every read waits for a rebuild that starts after the
+ * read. Requests made while a rebuild is pending share it, so concurrent readers do not
+ * queue up one rebuild each. If a rebuild fails, the previous snapshot is kept.
+ * Listeners are called after a rebuild publishes an index that differs from the previous one.
+ */
+public class ServiceIndexRefresher
+{
+    private static final Logger log = Logger.get(ServiceIndexRefresher.class);
+
+    private final Supplier<? extends Iterable<Service>> loader;
+    private final Duration ttl;
+    private final ScheduledExecutorService executor;
+
+    @GuardedBy("this")
+    private ServiceIndex index;
+
+    private volatile Snapshot snapshot;
+    // the next rebuild, while it has not started
+    private final AtomicReference<SettableFuture<ServiceIndex>> pendingRebuild = new AtomicReference<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private final TimeStat buildTime = new TimeStat(TimeUnit.MILLISECONDS);
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    public ServiceIndexRefresher(String name, Supplier<? extends Iterable<Service>> loader, Duration ttl)
+    {
+        this(name, loader, ttl, ServiceIndex.DEFAULT_CHANGE_HISTORY_SIZE);
+    }
+
+    public ServiceIndexRefresher(String name, Supplier<? extends Iterable<Service>> loader, Duration ttl, int changeHistorySize)
+    {
+        checkNotNull(name, "name is null");
+        this.loader = checkNotNull(loader, "loader is null");
+        this.ttl = checkNotNull(ttl, "ttl is null");
+        this.index = ServiceIndex.empty(changeHistorySize);
+
+        executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("service-index-refresher-" + name));
+    }
+
+    public void start()
+    {
+        if (ttl.toMillis() == 0) {
+            return;
+        }
+
+        executor.scheduleWithFixedDelay(this::tryRefresh, 0, ttl.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Adds a listener that is called on the rebuilding thread, so it must not block.
+     */
+    public void addListener(Runnable listener)
+    {
+        listeners.add(checkNotNull(listener, "listener is null"));
+    }
+
+    public ServiceIndex get()
+    {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return initialize();
+        }
+        if (ttl.toMillis() == 0 || current.getInvalidation() < invalidations.get()) {
+            try {
+                return requestRebuild().get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                // the failure is logged by the rebuild
+            }
+            return snapshot.getIndex();
+        }
+        return current.getIndex();
+    }
+
+    /**
+     * Requests a rebuild of the snapshot. Must be called after the change is visible
+     * to the loader.
+     */
+    public void invalidate()
+    {
+        invalidations.incrementAndGet();
+        requestRebuild();
+    }
+
+    /**
+     * Returns a rebuild that starts after this call.
+     */
+    private ListenableFuture<ServiceIndex> requestRebuild()
+    {
+        while (true) {
+            SettableFuture<ServiceIndex> rebuild = pendingRebuild.get();
+            if (rebuild != null) {
+                return rebuild;
+            }
+
+            SettableFuture<ServiceIndex> newRebuild = SettableFuture.create();
+            if (pendingRebuild.compareAndSet(null, newRebuild)) {
+                try {
+                    executor.execute(() -> rebuild(newRebuild));
+                }
+                catch (RejectedExecutionException e) {
+                    // stopped
+                    pendingRebuild.compareAndSet(newRebuild, null);
+                    newRebuild.setException(e);
+                }
+                return newRebuild;
+            }
+        }
+    }
+
+    private void rebuild(SettableFuture<ServiceIndex> rebuild)
+    {
+        // requests from now on need another rebuild, as this one may not see their changes
+        pendingRebuild.compareAndSet(rebuild, null);
+        try {
+            rebuild.set(refresh());
+        }
+        catch (Throwable e) {
+            refreshFailures.incrementAndGet();
+            log.error(e, "Error refreshing service index");
+            rebuild.setException(e);
+        }
+    }
+
+    private synchronized ServiceIndex initialize()
+    {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current.getIndex();
+        }
+        return refresh();
+    }
+
+    private void tryRefresh()
+    {
+        try {
+            refresh();
+        }
+        catch (Throwable e) {
+            refreshFailures.incrementAndGet();
+            log.error(e, "Error refreshing service index");
+        }
+    }
+
+    private synchronized ServiceIndex refresh()
+    {
+        // changes invalidated before this point are visible to the loader
+        long invalidation = invalidations.get();
+        ServiceIndex previous;
+        try (TimeStat.BlockTimer ignored = buildTime.time()) {
+            // load before reading the index, as the loader may trigger a nested rebuild
+            Iterable<Service> services = loader.get();
+            previous = index;
+            index = index.update(services);
+        }
+        snapshot = new Snapshot(index, invalidation, System.nanoTime());
+        if (index != previous) {
+            notifyListeners();
+        }
+        return index;
+    }
+
+    private void notifyListeners()
+    {
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            }
+            catch (Throwable e) {
+                log.error(e, "Error notifying service index listener");
+            }
+        }
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getBuildTime()
+    {
+        return buildTime;
+    }
+
+    @Managed
+    public long getSnapshotAgeMillis()
+    {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - current.getCreatedNanos());
+    }
+
+    @Managed
+    public long getSnapshotGeneration()
+    {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return -1;
+        }
+        return current.getIndex().getGeneration();
+    }
+
+    @Managed
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    @Managed
+    public long getRefreshFailures()
+    {
+        return refreshFailures.get();
+    }
+
+    private static class Snapshot
+    {
+        private final ServiceIndex index;
+        private final long invalidation;
+        private final long createdNanos;
+
+        private Snapshot(ServiceIndex index, long invalidation, long createdNanos)
+        {
+            this.index = index;
+            this.invalidation = invalidation;
+            this.createdNanos = createdNanos;
+        }
+
+        public ServiceIndex getIndex()
+        {
+            return index;
+        }
+
+        public long getInvalidation()
+        {
+            return invalidation;
+        }
+
+        public long getCreatedNanos()
+        {
+            return createdNanos;
+        }
+    }
+}
@@ -15,51 +15,216 @@
  */
 package io.airlift.discovery.server;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+import jakarta.annotation.Nullable;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static com.google.common.collect.Sets.union;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
 @Path("/v1/service")
 public class ServiceResource
 {
+    private static final Splitter ENTITY_TAG_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Splitter TOKEN_SPLITTER = Splitter.on('.');
+
     private final DynamicStore dynamicStore;
     private final StaticStore staticStore;
     private final NodeInfo node;
+    private final ServiceResponseCache responseCache;
+    private final ServiceWatcher watcher;
 
     @Inject
-    public ServiceResource(DynamicStore dynamicStore, StaticStore staticStore, NodeInfo node)
+    public ServiceResource(DynamicStore dynamicStore, StaticStore staticStore, NodeInfo node, ServiceResponseCache responseCache, ServiceWatcher watcher)
     {
         this.dynamicStore = dynamicStore;
         this.staticStore = staticStore;
         this.node = node;
+        this.responseCache = responseCache;
+        this.watcher = watcher;
+    }
+
+    /**
+     * Long-poll variant of {@link #getServices(String, String, String)}. If the
+     * If-None-Match tag matches the current result, the request is suspended until the
+     * result changes or the wait expires, in which case 304 is returned.
+     */
+    @GET
+    @Path("{type}/{pool}/watch")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void watchServices(
+            @PathParam("type") String type,
+            @PathParam("pool") String pool,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+            @QueryParam("maxWait") String maxWait,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        Duration wait;
+        try {
+            wait = maxWait == null ? watcher.getMaxWait() : Duration.valueOf(maxWait);
+        }
+        catch (IllegalArgumentException e) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        if (wait.compareTo(watcher.getMaxWait()) > 0) {
+            wait = watcher.getMaxWait();
+        }
+
+        ServiceIndex dynamicIndex = dynamicStore.getIndex();
+        ServiceIndex staticIndex = staticStore.getIndex();
+        long dynamicGeneration = dynamicIndex.getGeneration(type, pool);
+        long staticGeneration = staticIndex.getGeneration(type, pool);
+        EntityTag entityTag = entityTag(dynamicGeneration, staticGeneration);
+
+        if (ifNoneMatch == null || !matches(ifNoneMatch, entityTag) || wait.toMillis() == 0) {
+            asyncResponse.resume(respond(ifNoneMatch, entityTag, () -> responseCache.getServices(node.getEnvironment(), type, pool, dynamicIndex, staticIndex)));
+            return;
+        }
+
+        ListenableFuture<Void> change = watcher.waitForChange(type, pool, dynamicGeneration, staticGeneration);
+        asyncResponse.setTimeoutHandler(response -> {
+            response.resume(Response.notModified(entityTag).build());
+            // stop waiting, so the watcher does not keep this response
+            change.cancel(false);
+        });
+        asyncResponse.setTimeout(wait.toMillis(), TimeUnit.MILLISECONDS);
+
+        change.addListener(() -> {
+            if (!asyncResponse.isDone()) {
+                asyncResponse.resume(getServices(type, pool, ifNoneMatch));
+            }
+        }, directExecutor());
     }
 
     @GET
     @Path("{type}/{pool}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Services getServices(@PathParam("type") String type, @PathParam("pool") String pool)
+    public Response getServices(@PathParam("type") String type, @PathParam("pool") String pool, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch)
     {
-        return new Services(node.getEnvironment(), union(dynamicStore.get(type, pool), staticStore.get(type, pool)));
+        ServiceIndex dynamicIndex = dynamicStore.getIndex();
+        ServiceIndex staticIndex = staticStore.getIndex();
+
+        return respond(ifNoneMatch,
+                entityTag(dynamicIndex.getGeneration(type, pool), staticIndex.getGeneration(type, pool)),
+                () -> responseCache.getServices(node.getEnvironment(), type, pool, dynamicIndex, staticIndex));
     }
 
     @GET
     @Path("{type}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Services getServices(@PathParam("type") String type)
+    public Response getServices(@PathParam("type") String type, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch)
     {
-        return new Services(node.getEnvironment(), union(dynamicStore.get(type), staticStore.get(type)));
+        ServiceIndex dynamicIndex = dynamicStore.getIndex();
+        ServiceIndex staticIndex = staticStore.getIndex();
+
+        return respond(ifNoneMatch,
+                entityTag(dynamicIndex.getGeneration(type), staticIndex.getGeneration(type)),
+                () -> responseCache.getServices(node.getEnvironment(), type, dynamicIndex, staticIndex));
     }
 
+    /**
+     * Returns all services. If {@code since} is set to the token of an earlier
+     * {@link ServiceDelta}, or to the ETag of an earlier response, only the changes since
+     * then are returned as a {@link ServiceDelta}.
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Services getServices()
+    public Response getAllServices(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, @QueryParam("since") String since)
+    {
+        ServiceIndex dynamicIndex = dynamicStore.getIndex();
+        ServiceIndex staticIndex = staticStore.getIndex();
+        EntityTag entityTag = entityTag(dynamicIndex.getGeneration(), staticIndex.getGeneration());
+
+        if (since != null) {
+            return Response.ok(getChangesSince(since, entityTag, dynamicIndex, staticIndex)).tag(entityTag).build();
+        }
+
+        return respond(ifNoneMatch,
+                entityTag,
+                () -> responseCache.getServices(node.getEnvironment(), dynamicIndex, staticIndex));
+    }
+
+    private ServiceDelta getChangesSince(String since, EntityTag entityTag, ServiceIndex dynamicIndex, ServiceIndex staticIndex)
+    {
+        ServiceIndex.Delta dynamicDelta = null;
+        ServiceIndex.Delta staticDelta = null;
+
+        String prefix = node.getInstanceId() + ".";
+        List<String> parts = TOKEN_SPLITTER.splitToList(since.substring(Math.min(prefix.length(), since.length())));
+        if (since.startsWith(prefix) && parts.size() == 2) {
+            Long dynamicGeneration = Longs.tryParse(parts.get(0));
+            Long staticGeneration = Longs.tryParse(parts.get(1));
+            if (dynamicGeneration != null && staticGeneration != null) {
+                dynamicDelta = dynamicIndex.getChangesSince(dynamicGeneration);
+                staticDelta = staticIndex.getChangesSince(staticGeneration);
+            }
+        }
+
+        if (dynamicDelta == null || staticDelta == null) {
+            return new ServiceDelta(node.getEnvironment(), entityTag.getValue(), true, union(dynamicIndex.getAll(), staticIndex.getAll()), ImmutableSet.of());
+        }
+        return new ServiceDelta(
+                node.getEnvironment(),
+                entityTag.getValue(),
+                false,
+                union(dynamicDelta.getAdded(), staticDelta.getAdded()),
+                union(dynamicDelta.getRemoved(), staticDelta.getRemoved()));
+    }
+
+    private static Response respond(@Nullable String ifNoneMatch, EntityTag entityTag, Supplier<byte[]> body)
+    {
+        if (ifNoneMatch != null && matches(ifNoneMatch, entityTag)) {
+            return Response.notModified(entityTag).build();
+        }
+        return Response.ok(body.get()).tag(entityTag).build();
+    }
+
+    /**
+     * The generations only identify content within a single server process, so the
+     * node instance id is part of the tag. The tag value doubles as the delta token.
+     */
+    private EntityTag entityTag(long dynamicGeneration, long staticGeneration)
+    {
+        return new EntityTag(node.getInstanceId() + "." + dynamicGeneration + "." + staticGeneration);
+    }
+
+    // If-None-Match uses the weak comparison function (RFC 9110, section 13.1.2)
+    static boolean matches(String ifNoneMatch, EntityTag entityTag)
     {
-        return new Services(node.getEnvironment(), union(dynamicStore.getAll(), staticStore.getAll()));
+        String expected = '"' + entityTag.getValue() + '"';
+        for (String candidate : ENTITY_TAG_SPLITTER.split(ifNoneMatch)) {
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(expected)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
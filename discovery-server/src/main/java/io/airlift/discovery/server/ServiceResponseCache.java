@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import io.airlift.json.JsonCodec;
+import jakarta.annotation.Nullable;
+import org.weakref.jmx.Managed;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Sets.union;
+
+/**
+ * Caches encoded {@link Services} responses by environment, type and pool. A cached
+ * response is reused for as long as the generations of the dynamic and static groups
+ * it was built from are unchanged.
+ */
+public class ServiceResponseCache
+{
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final JsonCodec<Services> codec;
+    private final Cache<ResponseKey, CachedResponse> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .build();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Inject
+    public ServiceResponseCache(JsonCodec<Services> codec)
+    {
+        this.codec = checkNotNull(codec, "codec is null");
+    }
+
+    public byte[] getServices(String environment, ServiceIndex dynamicIndex, ServiceIndex staticIndex)
+    {
+        return get(new ResponseKey(environment, null, null),
+                dynamicIndex.getGeneration(),
+                staticIndex.getGeneration(),
+                dynamicIndex.getAll(),
+                staticIndex.getAll());
+    }
+
+    public byte[] getServices(String environment, String type, ServiceIndex dynamicIndex, ServiceIndex staticIndex)
+    {
+        return get(new ResponseKey(environment, type, null),
+                dynamicIndex.getGeneration(type),
+                staticIndex.getGeneration(type),
+                dynamicIndex.get(type),
+                staticIndex.get(type));
+    }
+
+    public byte[] getServices(String environment, String type, String pool, ServiceIndex dynamicIndex, ServiceIndex staticIndex)
+    {
+        return get(new ResponseKey(environment, type, pool),
+                dynamicIndex.getGeneration(type, pool),
+                staticIndex.getGeneration(type, pool),
+                dynamicIndex.get(type, pool),
+                staticIndex.get(type, pool));
+    }
+
+    private byte[] get(ResponseKey key, long dynamicGeneration, long staticGeneration, Set<Service> dynamicServices, Set<Service> staticServices)
+    {
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached != null && cached.matches(dynamicGeneration, staticGeneration)) {
+            hits.incrementAndGet();
+            return cached.getBody();
+        }
+        misses.incrementAndGet();
+
+        byte[] body = codec.toJsonBytes(new Services(key.getEnvironment(), union(dynamicServices, staticServices)));
+        cache.put(key, new CachedResponse(dynamicGeneration, staticGeneration, body));
+        return body;
+    }
+
+    @Managed
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @Managed
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    @Managed
+    public long getSize()
+    {
+        return cache.size();
+    }
+
+    @Managed
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    private static final class ResponseKey
+    {
+        private final String environment;
+        private final String type;
+        private final String pool;
+
+        private ResponseKey(String environment, @Nullable String type, @Nullable String pool)
+        {
+            this.environment = checkNotNull(environment, "environment is null");
+            this.type = type;
+            this.pool = pool;
+        }
+
+        public String getEnvironment()
+        {
+            return environment;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ResponseKey that = (ResponseKey) o;
+            return environment.equals(that.environment) &&
+                    Objects.equals(type, that.type) &&
+                    Objects.equals(pool, that.pool);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(environment, type, pool);
+        }
+    }
+
+    private static final class CachedResponse
+    {
+        private final long dynamicGeneration;
+        private final long staticGeneration;
+        private final byte[] body;
+
+        private CachedResponse(long dynamicGeneration, long staticGeneration, byte[] body)
+        {
+            this.dynamicGeneration = dynamicGeneration;
+            this.staticGeneration = staticGeneration;
+            this.body = body;
+        }
+
+        public boolean matches(long dynamicGeneration, long staticGeneration)
+        {
+            return this.dynamicGeneration == dynamicGeneration && this.staticGeneration == staticGeneration;
+        }
+
+        public byte[] getBody()
+        {
+            return body;
+        }
+    }
+}
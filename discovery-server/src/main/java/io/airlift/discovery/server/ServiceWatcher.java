@@ -0,0 +1,254 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+import io.airlift.concurrent.BoundedExecutor;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import jakarta.annotation.PreDestroy;
+import org.weakref.jmx.Managed;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+
+/**
+ * Tracks callers waiting for the services of a (type, pool) to change. Waiters do not
+ * hold a thread: each has a future, grouped by (type, pool, generations), which is
+ * completed by a check of the store indexes that runs whenever a store publishes a new
+ * index. Futures are completed on a small bounded pool so listeners writing responses
+ * do not delay the check.
+ */
+public class ServiceWatcher
+{
+    private static final Logger log = Logger.get(ServiceWatcher.class);
+    private static final int MAX_NOTIFICATION_THREADS = 8;
+
+    private final DynamicStore dynamicStore;
+    private final StaticStore staticStore;
+    private final Duration maxWait;
+
+    // waiters are added and removed under the map lock of their key, so a group removed
+    // by the check can not gain waiters afterwards
+    private final ConcurrentMap<WatchKey, Set<SettableFuture<Void>>> watches = new ConcurrentHashMap<>();
+    private final ExecutorService checker;
+    private final AtomicBoolean checkScheduled = new AtomicBoolean();
+    private final ExecutorService notificationExecutor;
+    private final BoundedExecutor notifier;
+
+    private final AtomicLong notifications = new AtomicLong();
+
+    @Inject
+    public ServiceWatcher(DynamicStore dynamicStore, StaticStore staticStore, DiscoveryConfig config)
+    {
+        this.dynamicStore = checkNotNull(dynamicStore, "dynamicStore is null");
+        this.staticStore = checkNotNull(staticStore, "staticStore is null");
+        checkNotNull(config, "config is null");
+        this.maxWait = config.getWatchMaxWait();
+
+        checker = newSingleThreadExecutor(daemonThreadsNamed("service-watcher"));
+        notificationExecutor = newCachedThreadPool(daemonThreadsNamed("service-watcher-notifier-%s"));
+        notifier = new BoundedExecutor(notificationExecutor, MAX_NOTIFICATION_THREADS);
+
+        // stores call the listener on the thread that published the index, so the check runs on its own thread
+        dynamicStore.addIndexListener(this::scheduleCheck);
+        staticStore.addIndexListener(this::scheduleCheck);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        checker.shutdownNow();
+        notificationExecutor.shutdownNow();
+    }
+
+    public Duration getMaxWait()
+    {
+        return maxWait;
+    }
+
+    /**
+     * Returns a future that completes once the dynamic or the static generation of the
+     * (type, pool) group differs from the specified generations. Callers that stop
+     * waiting must cancel the future, which removes it from the watcher.
+     */
+    public ListenableFuture<Void> waitForChange(String type, String pool, long dynamicGeneration, long staticGeneration)
+    {
+        WatchKey key = new WatchKey(type, pool, dynamicGeneration, staticGeneration);
+        SettableFuture<Void> future = SettableFuture.create();
+        watches.compute(key, (ignored, waiters) -> {
+            if (waiters == null) {
+                waiters = ConcurrentHashMap.newKeySet();
+            }
+            waiters.add(future);
+            return waiters;
+        });
+        future.addListener(() -> {
+            if (future.isCancelled()) {
+                watches.computeIfPresent(key, (ignored, waiters) -> {
+                    waiters.remove(future);
+                    return waiters.isEmpty() ? null : waiters;
+                });
+            }
+        }, directExecutor());
+
+        // the index may have been published after the caller read the generations, but before the waiter was added
+        checkForChange(key, dynamicStore.getIndex(), staticStore.getIndex());
+        return future;
+    }
+
+    @Managed
+    public void checkForChanges()
+    {
+        if (watches.isEmpty()) {
+            return;
+        }
+
+        ServiceIndex dynamicIndex = dynamicStore.getIndex();
+        ServiceIndex staticIndex = staticStore.getIndex();
+
+        for (WatchKey key : watches.keySet()) {
+            checkForChange(key, dynamicIndex, staticIndex);
+        }
+    }
+
+    private void checkForChange(WatchKey key, ServiceIndex dynamicIndex, ServiceIndex staticIndex)
+    {
+        if (dynamicIndex.getGeneration(key.getType(), key.getPool()) != key.getDynamicGeneration() ||
+                staticIndex.getGeneration(key.getType(), key.getPool()) != key.getStaticGeneration()) {
+            Set<SettableFuture<Void>> waiters = watches.remove(key);
+            if (waiters != null) {
+                notifications.incrementAndGet();
+                notifier.execute(() -> waiters.forEach(future -> future.set(null)));
+            }
+        }
+    }
+
+    private void scheduleCheck()
+    {
+        // checks requested while one is queued are covered by it
+        if (!checkScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            checker.execute(() -> {
+                checkScheduled.set(false);
+                try {
+                    checkForChanges();
+                }
+                catch (Throwable e) {
+                    log.error(e, "Error checking for service changes");
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // stopped
+            checkScheduled.set(false);
+        }
+    }
+
+    @Managed
+    public int getWatchCount()
+    {
+        return watches.size();
+    }
+
+    @Managed
+    public int getWaiterCount()
+    {
+        int count = 0;
+        for (Set<SettableFuture<Void>> waiters : watches.values()) {
+            count += waiters.size();
+        }
+        return count;
+    }
+
+    @Managed
+    public long getNotifications()
+    {
+        return notifications.get();
+    }
+
+    private static final class WatchKey
+    {
+        private final String type;
+        private final String pool;
+        private final long dynamicGeneration;
+        private final long staticGeneration;
+
+        private WatchKey(String type, String pool, long dynamicGeneration, long staticGeneration)
+        {
+            this.type = checkNotNull(type, "type is null");
+            this.pool = checkNotNull(pool, "pool is null");
+            this.dynamicGeneration = dynamicGeneration;
+            this.staticGeneration = staticGeneration;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public String getPool()
+        {
+            return pool;
+        }
+
+        public long getDynamicGeneration()
+        {
+            return dynamicGeneration;
+        }
+
+        public long getStaticGeneration()
+        {
+            return staticGeneration;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            WatchKey that = (WatchKey) o;
+            return dynamicGeneration == that.dynamicGeneration &&
+                    staticGeneration == that.staticGeneration &&
+                    type.equals(that.type) &&
+                    pool.equals(that.pool);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(type, pool, dynamicGeneration, staticGeneration);
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package io.airlift.discovery.server;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
@@ -29,7 +30,8 @@ public class Services
     private final String environment;
     private final Set<Service> services;
 
-    public Services(String environment, Set<Service> services)
+    @JsonCreator
+    public Services(@JsonProperty("environment") String environment, @JsonProperty("services") Set<Service> services)
     {
         Preconditions.checkNotNull(environment, "environment is null");
         Preconditions.checkNotNull(services, "services is null");
@@ -16,88 +16,270 @@
 package io.airlift.discovery.store;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.log.Logger;
+import io.airlift.stats.DistributionStat;
+import io.airlift.stats.TimeStat;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
-import static io.airlift.concurrent.Threads.threadsNamed;
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static com.google.common.util.concurrent.Futures.getDone;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
+/**
+ * Sends queued entries to a handler in batches. The processor has no thread of its own:
+ * when entries are queued, a drain is scheduled on the shared sender executor after the
+ * linger time, or right away once a full batch is queued. A drain starts sending batches,
+ * up to the batch size limit or the byte target each, until the max number of batches
+ * are in flight. When a batch completes, another drain is started if entries remain, so
+ * entries queue up (and coalesce) while all batches are in flight.
+ * <p>
+ * The entries of a failed batch are queued again, and sending is delayed as decided by
+ * a {@link CircuitBreaker}, so a failing peer gets retries with backoff, and no requests
+ * at all while the breaker is open.
+ * <p>
+ * The size limit adapts to the handler latency: it is halved when a batch takes longer
+ * than the latency target, and grows back towards the max batch size when full batches
+ * are handled in time.
+ */
 public class BatchProcessor<T>
 {
     private static final Logger log = Logger.get(BatchProcessor.class);
 
+    private static final int IDLE = 0;
+    private static final int LINGERING = 1;
+    private static final int DRAINING = 2;
+    private static final int BACKING_OFF = 3;
+
     private final BatchHandler<T> handler;
     private final int maxBatchSize;
-    private final BlockingQueue<T> queue;
-    private final String name;
+    private final long lingerNanos;
+    private final long targetBatchBytes;
+    private final long latencyTargetNanos;
+    private final int maxInFlightBatches;
+    private final ToLongFunction<? super T> weigher;
+    private final CoalescingQueue<T> queue;
+    private final ScheduledExecutorService senderExecutor;
+    private final CircuitBreaker circuitBreaker;
 
-    private ExecutorService executor;
-    private volatile Future<?> future;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private volatile boolean running;
+
+    private volatile int batchSizeLimit;
+    private final AtomicInteger inFlightBatches = new AtomicInteger();
 
     private final AtomicLong processedEntries = new AtomicLong();
-    private final AtomicLong droppedEntries = new AtomicLong();
     private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong retriedEntries = new AtomicLong();
+    private final DistributionStat batchSize = new DistributionStat();
+    private final DistributionStat batchBytes = new DistributionStat();
+    private final TimeStat batchTime = new TimeStat(TimeUnit.MILLISECONDS);
 
-    public BatchProcessor(String name, BatchHandler<T> handler, int maxBatchSize, int queueSize)
+    /**
+     * Queued entries with the same key are merged with the merger, so only the
+     * merged entry is processed. The weigher returns the approximate encoded size of
+     * an entry.
+     */
+    public BatchProcessor(
+            BatchHandler<T> handler,
+            StoreConfig config,
+            ScheduledExecutorService senderExecutor,
+            Function<? super T, ?> keyFunction,
+            BinaryOperator<T> merger,
+            ToLongFunction<? super T> weigher)
     {
-        Preconditions.checkNotNull(name, "name is null");
         Preconditions.checkNotNull(handler, "handler is null");
-        Preconditions.checkArgument(queueSize > 0, "queue size needs to be a positive integer");
-        Preconditions.checkArgument(maxBatchSize > 0, "max batch size needs to be a positive integer");
+        Preconditions.checkNotNull(config, "config is null");
+        Preconditions.checkNotNull(senderExecutor, "senderExecutor is null");
+        Preconditions.checkNotNull(weigher, "weigher is null");
+        Preconditions.checkArgument(config.getQueueSize() > 0, "queue size needs to be a positive integer");
+        Preconditions.checkArgument(config.getMaxBatchSize() > 0, "max batch size needs to be a positive integer");
 
-        this.name = name;
         this.handler = handler;
-        this.maxBatchSize = maxBatchSize;
-        this.queue = new ArrayBlockingQueue<T>(queueSize);
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.lingerNanos = config.getBatchLinger().roundTo(TimeUnit.NANOSECONDS);
+        this.targetBatchBytes = config.getTargetBatchBytes().toBytes();
+        this.latencyTargetNanos = config.getBatchLatencyTarget().roundTo(TimeUnit.NANOSECONDS);
+        this.maxInFlightBatches = config.getMaxInFlightBatches();
+        this.weigher = weigher;
+        this.senderExecutor = senderExecutor;
+        this.circuitBreaker = new CircuitBreaker(
+                config.getBreakerFailureThreshold(),
+                config.getRetryMinBackoff(),
+                config.getRetryMaxBackoff(),
+                config.getBreakerOpenTime(),
+                Ticker.systemTicker());
+        this.queue = new CoalescingQueue<>(config.getQueueSize(), keyFunction, merger);
+        this.batchSizeLimit = maxBatchSize;
     }
 
     @PostConstruct
-    public synchronized void start()
-    {
-        if (future == null) {
-            executor = newSingleThreadExecutor(threadsNamed("batch-processor-" + name));
-
-            future = executor.submit(new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    while (!Thread.interrupted()) {
-                        List<T> entries = new ArrayList<T>(maxBatchSize);
-
-                        try {
-                            T first = queue.take();
-                            entries.add(first);
-                            queue.drainTo(entries, maxBatchSize - 1);
-
-                            handler.processBatch(Collections.unmodifiableList(entries));
-
-                            processedEntries.addAndGet(entries.size());
-                        }
-                        catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                        catch (Throwable t) {
-                            errors.incrementAndGet();
-                            log.warn(t, "Error handling batch");
-                        }
-
-                        // TODO: expose timestamp of last execution via jmx
+    public void start()
+    {
+        running = true;
+    }
+
+    private void scheduleDrain()
+    {
+        if (state.get() == IDLE && state.compareAndSet(IDLE, LINGERING)) {
+            senderExecutor.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+        }
+        else if (state.get() == LINGERING && queue.size() >= batchSizeLimit && state.compareAndSet(LINGERING, DRAINING)) {
+            // a full batch is queued, so there is no reason to wait
+            senderExecutor.execute(this::drain);
+        }
+    }
+
+    private void lingerExpired()
+    {
+        // does nothing if a full batch already started the drain
+        if (state.compareAndSet(LINGERING, DRAINING)) {
+            drain();
+        }
+    }
+
+    private void backoffExpired()
+    {
+        // does nothing if a successful batch already restarted draining
+        if (state.compareAndSet(BACKING_OFF, DRAINING)) {
+            drain();
+        }
+    }
+
+    private void drain()
+    {
+        if (!running) {
+            state.set(IDLE);
+            return;
+        }
+
+        // batches are sent asynchronously, so a drain does not hold a sender thread for a round trip
+        while (inFlightBatches.get() < maxInFlightBatches && queue.size() > 0) {
+            long delay = circuitBreaker.getDelayNanos();
+            if (delay > 0) {
+                // the peer is failing, so keep the entries queued until the backoff expires
+                state.set(BACKING_OFF);
+                senderExecutor.schedule(this::backoffExpired, delay, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            List<T> entries = nextBatch();
+            if (entries.isEmpty()) {
+                break;
+            }
+            send(entries);
+        }
+
+        state.set(IDLE);
+        // an entry queued or a batch completed before the state was reset did not start a drain
+        if (queue.size() > 0 && inFlightBatches.get() < maxInFlightBatches) {
+            drainNow();
+        }
+    }
+
+    private void drainNow()
+    {
+        if (state.compareAndSet(IDLE, DRAINING)) {
+            senderExecutor.execute(this::drain);
+        }
+    }
+
+    private List<T> nextBatch()
+    {
+        int limit = batchSizeLimit;
+        List<T> entries = new ArrayList<T>(limit);
+        long bytes = 0;
+        while (entries.size() < limit && bytes < targetBatchBytes) {
+            T next = queue.poll();
+            if (next == null) {
+                break;
+            }
+            entries.add(next);
+            bytes += weigher.applyAsLong(next);
+        }
+        if (!entries.isEmpty()) {
+            batchSize.add(entries.size());
+            batchBytes.add(bytes);
+        }
+        return entries;
+    }
+
+    private void send(List<T> entries)
+    {
+        int limit = batchSizeLimit;
+        long start = System.nanoTime();
+        inFlightBatches.incrementAndGet();
+
+        ListenableFuture<?> future;
+        try {
+            future = handler.processBatch(Collections.unmodifiableList(entries));
+        }
+        catch (Throwable t) {
+            future = immediateFailedFuture(t);
+        }
+
+        ListenableFuture<?> result = future;
+        result.addListener(() -> {
+            long elapsed = System.nanoTime() - start;
+            inFlightBatches.decrementAndGet();
+            batchTime.add(elapsed, TimeUnit.NANOSECONDS);
+            adjustBatchSizeLimit(limit, entries.size(), elapsed);
+
+            try {
+                getDone(result);
+                processedEntries.addAndGet(entries.size());
+                circuitBreaker.onSuccess();
+                // the peer is reachable again, so stop backing off
+                if (state.compareAndSet(BACKING_OFF, DRAINING)) {
+                    senderExecutor.execute(this::drain);
+                }
+            }
+            catch (ExecutionException | RuntimeException e) {
+                errors.incrementAndGet();
+                log.debug(e, "Error handling batch");
+                circuitBreaker.onFailure();
+
+                // queue the entries again for redelivery, unless a newer version was queued in the meantime;
+                // retries never evict queued entries, which are at least as fresh
+                for (T entry : entries) {
+                    if (queue.offerRetry(entry)) {
+                        retriedEntries.incrementAndGet();
                     }
                 }
-            });
+            }
+
+            // a completed batch frees a slot for entries queued while all slots were in use
+            if (queue.size() > 0) {
+                drainNow();
+            }
+        }, directExecutor());
+    }
+
+    private synchronized void adjustBatchSizeLimit(int limit, int size, long elapsedNanos)
+    {
+        if (elapsedNanos > latencyTargetNanos) {
+            batchSizeLimit = Math.max(1, limit / 2);
+        }
+        else if (size >= limit) {
+            // only full batches show that a larger batch is needed
+            batchSizeLimit = Math.min(maxBatchSize, limit + Math.max(1, limit / 4));
         }
     }
 
@@ -110,7 +292,46 @@ public class BatchProcessor<T>
     @Managed
     public long getDroppedEntries()
     {
-        return droppedEntries.get();
+        return queue.getDropped();
+    }
+
+    @Managed
+    public long getDroppedRetries()
+    {
+        return queue.getDroppedRetries();
+    }
+
+    @Managed
+    public int getBatchSizeLimit()
+    {
+        return batchSizeLimit;
+    }
+
+    @Managed
+    @Nested
+    public DistributionStat getBatchSize()
+    {
+        return batchSize;
+    }
+
+    @Managed
+    @Nested
+    public DistributionStat getBatchBytes()
+    {
+        return batchBytes;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getBatchTime()
+    {
+        return batchTime;
+    }
+
+    @Managed
+    public long getCoalescedEntries()
+    {
+        return queue.getCoalesced();
     }
 
     @Managed
@@ -119,6 +340,36 @@ public class BatchProcessor<T>
         return errors.get();
     }
 
+    @Managed
+    public long getRetriedEntries()
+    {
+        return retriedEntries.get();
+    }
+
+    @Managed
+    public String getBreakerState()
+    {
+        return circuitBreaker.getState().toString();
+    }
+
+    @Managed
+    public long getBreakerOpened()
+    {
+        return circuitBreaker.getOpened();
+    }
+
+    @Managed
+    public int getConsecutiveFailures()
+    {
+        return circuitBreaker.getConsecutiveFailures();
+    }
+
+    @Managed
+    public int getInFlightBatches()
+    {
+        return inFlightBatches.get();
+    }
+
     @Managed
     public long getQueueSize()
     {
@@ -126,31 +377,27 @@ public class BatchProcessor<T>
     }
 
     @PreDestroy
-    public synchronized void stop()
+    public void stop()
     {
-        if (future != null) {
-            future.cancel(true);
-            executor.shutdownNow();
-
-            future = null;
-        }
+        // batches in flight are completed, but no further drains are started
+        running = false;
     }
 
     public void put(T entry)
     {
-        Preconditions.checkState(!future.isCancelled(), "Processor is not running");
+        Preconditions.checkState(running, "Processor is not running");
         Preconditions.checkNotNull(entry, "entry is null");
 
-        while (!queue.offer(entry)) {
-            // throw away oldest and try again
-            if (queue.poll() != null) {
-                droppedEntries.incrementAndGet();
-            }
-        }
+        // replaces a queued entry with the same key, or throws away the oldest entry if the queue is full
+        queue.offer(entry);
+        scheduleDrain();
     }
 
     public interface BatchHandler<T>
     {
-        void processBatch(Collection<T> entries);
+        /**
+         * Starts processing the batch, and returns a future that completes when it is done.
+         */
+        ListenableFuture<?> processBatch(Collection<T> entries);
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded log of the keys changed in a local store. Every change gets the next local
+ * sequence number, and the most recent {@code capacity} changes are kept. Sequence
+ * numbers are only meaningful within a log, and every log instance has a random id,
+ * so a reader can tell that the log was replaced, e.g. by a restart.
+ */
+@ThreadSafe
+public class ChangeLog
+        implements StoreListener
+{
+    private final String logId = UUID.randomUUID().toString();
+
+    @GuardedBy("this")
+    private final byte[][] keys;
+
+    @GuardedBy("this")
+    private long lastSequence;
+
+    public ChangeLog(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be greater than 0");
+        keys = new byte[capacity][];
+    }
+
+    public String getLogId()
+    {
+        return logId;
+    }
+
+    public synchronized long getLastSequence()
+    {
+        return lastSequence;
+    }
+
+    @Override
+    public synchronized void onChanges(List<StoreChange> changes)
+    {
+        for (StoreChange change : changes) {
+            lastSequence++;
+            keys[(int) (lastSequence % keys.length)] = change.getKey();
+        }
+    }
+
+    /**
+     * Returns the distinct keys changed after the specified sequence, in order of their
+     * first change, or null if some of those changes are no longer in the log.
+     */
+    public synchronized Changes getChangesSince(long sequence)
+    {
+        if (sequence < 0 || sequence > lastSequence || lastSequence - sequence > keys.length) {
+            return null;
+        }
+
+        Set<ByteBuffer> changed = new LinkedHashSet<>();
+        for (long i = sequence + 1; i <= lastSequence; i++) {
+            changed.add(ByteBuffer.wrap(keys[(int) (i % keys.length)]));
+        }
+
+        ImmutableList.Builder<byte[]> changedKeys = ImmutableList.builder();
+        for (ByteBuffer key : changed) {
+            changedKeys.add(key.array());
+        }
+        return new Changes(lastSequence, changedKeys.build());
+    }
+
+    public static class Changes
+    {
+        private final long sequence;
+        private final List<byte[]> keys;
+
+        private Changes(long sequence, List<byte[]> keys)
+        {
+            this.sequence = sequence;
+            this.keys = keys;
+        }
+
+        /**
+         * The sequence of the last change included.
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public List<byte[]> getKeys()
+        {
+            return keys;
+        }
+    }
+}
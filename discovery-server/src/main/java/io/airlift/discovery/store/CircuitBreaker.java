@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.base.Ticker;
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.units.Duration;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decides when requests to a peer may be sent. After a failure, requests are delayed by
+ * an exponential backoff with jitter. After {@code failureThreshold} consecutive failures
+ * the breaker opens and nothing is sent for the open time. Then a single probe request
+ * is allowed: if it succeeds the breaker closes, otherwise it opens again.
+ */
+@ThreadSafe
+class CircuitBreaker
+{
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long minBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    @GuardedBy("this")
+    private State state = State.CLOSED;
+
+    @GuardedBy("this")
+    private int consecutiveFailures;
+
+    @GuardedBy("this")
+    private long retryAt;
+
+    @GuardedBy("this")
+    private boolean probing;
+
+    @GuardedBy("this")
+    private long opened;
+
+    public CircuitBreaker(int failureThreshold, Duration minBackoff, Duration maxBackoff, Duration openTime, Ticker ticker)
+    {
+        checkArgument(failureThreshold > 0, "failureThreshold must be greater than 0");
+        checkNotNull(minBackoff, "minBackoff is null");
+        checkNotNull(maxBackoff, "maxBackoff is null");
+        checkNotNull(openTime, "openTime is null");
+        checkArgument(minBackoff.compareTo(maxBackoff) <= 0, "minBackoff is greater than maxBackoff");
+
+        this.failureThreshold = failureThreshold;
+        this.minBackoffNanos = Math.max(1, minBackoff.roundTo(TimeUnit.NANOSECONDS));
+        this.maxBackoffNanos = Math.max(1, maxBackoff.roundTo(TimeUnit.NANOSECONDS));
+        this.openNanos = openTime.roundTo(TimeUnit.NANOSECONDS);
+        this.ticker = checkNotNull(ticker, "ticker is null");
+    }
+
+    /**
+     * Returns 0 if a request may be sent now, or how long to wait before asking again.
+     * While the breaker is half open, only the first caller gets to send the probe.
+     */
+    public synchronized long getDelayNanos()
+    {
+        long now = ticker.read();
+        switch (state) {
+            case CLOSED:
+                if (consecutiveFailures == 0) {
+                    return 0;
+                }
+                return Math.max(0, retryAt - now);
+            case OPEN:
+                if (now - retryAt < 0) {
+                    return retryAt - now;
+                }
+                state = State.HALF_OPEN;
+                probing = false;
+                // fall through
+            case HALF_OPEN:
+                if (probing) {
+                    // the outcome of the probe decides
+                    return openNanos;
+                }
+                probing = true;
+                return 0;
+        }
+        throw new AssertionError("Unknown state " + state);
+    }
+
+    public synchronized void onSuccess()
+    {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure()
+    {
+        consecutiveFailures++;
+        long now = ticker.read();
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                opened++;
+            }
+            state = State.OPEN;
+            retryAt = now + openNanos;
+            return;
+        }
+
+        // exponential backoff with "equal jitter": half fixed, half random
+        long backoff = minBackoffNanos << Math.min(consecutiveFailures - 1, 30);
+        if (backoff <= 0 || backoff > maxBackoffNanos) {
+            backoff = maxBackoffNanos;
+        }
+        retryAt = now + backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Number of times the breaker opened.
+     */
+    public synchronized long getOpened()
+    {
+        return opened;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.errorprone.annotations.ThreadSafe;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded FIFO queue that holds at most one element per key. An element offered for
+ * a key that is already queued is merged into the queued element, which keeps its
+ * position. When the queue is full, the oldest element is dropped. Elements queued
+ * again with {@link #offerRetry} never replace or evict another element.
+ * <p>
+ * Any thread may offer, but only one thread at a time may poll or drain.
+ * The queued elements are kept in a concurrent map by key, and the order of the keys in
+ * a {@link RingBuffer}. Offers never hold a lock while merging: an element is merged
+ * outside the map and swapped in with a compare-and-replace, which is retried if another
+ * element for the key was merged in the meantime, so the merger may be called more than
+ * once per offer and must not have side effects. The capacity is rounded up to a power
+ * of two.
+ */
+@ThreadSafe
+class CoalescingQueue<T>
+{
+    private final Function<? super T, ?> keyFunction;
+    private final BinaryOperator<T> merger;
+
+    private final RingBuffer<Object> keys;
+    private final ConcurrentMap<Object, T> elements = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder droppedRetries = new LongAdder();
+
+    public CoalescingQueue(int capacity, Function<? super T, ?> keyFunction, BinaryOperator<T> merger)
+    {
+        this.keys = new RingBuffer<>(capacity);
+        this.keyFunction = checkNotNull(keyFunction, "keyFunction is null");
+        this.merger = checkNotNull(merger, "merger is null");
+    }
+
+    public void offer(T element)
+    {
+        checkNotNull(element, "element is null");
+
+        Object key = keyFunction.apply(element);
+        T queued = elements.get(key);
+        while (true) {
+            if (queued == null) {
+                queued = elements.putIfAbsent(key, element);
+                if (queued == null) {
+                    break;
+                }
+            }
+            else if (elements.replace(key, queued, merger.apply(queued, element))) {
+                coalesced.increment();
+                return;
+            }
+            else {
+                // merged with or polled by another thread
+                queued = elements.get(key);
+            }
+        }
+
+        while (!keys.offer(key)) {
+            // throw away oldest and try again
+            Object oldest = keys.poll();
+            if (oldest != null && elements.remove(oldest) != null) {
+                dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Queues an element again after it could not be processed. The element is
+     * discarded if an element with the same key is queued, since that one is newer,
+     * and it is discarded instead of the oldest element if the queue is full.
+     * Returns true if the element was queued.
+     */
+    public boolean offerRetry(T element)
+    {
+        checkNotNull(element, "element is null");
+
+        Object key = keyFunction.apply(element);
+        if (elements.containsKey(key)) {
+            coalesced.increment();
+            return false;
+        }
+
+        if (!keys.offer(key)) {
+            droppedRetries.increment();
+            return false;
+        }
+        // an element offered in the meantime is newer; its key is queued as well, and poll skips the extra one
+        if (elements.putIfAbsent(key, element) != null) {
+            coalesced.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the oldest element, or null if the queue is empty.
+     */
+    public T poll()
+    {
+        while (true) {
+            Object key = keys.poll();
+            if (key == null) {
+                return null;
+            }
+            // the key and the element are not updated atomically, so skip keys without an element
+            T element = elements.remove(key);
+            if (element != null) {
+                return element;
+            }
+        }
+    }
+
+    public int drainTo(Collection<? super T> collection, int maxElements)
+    {
+        int count = 0;
+        while (count < maxElements) {
+            T element = poll();
+            if (element == null) {
+                break;
+            }
+            collection.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the approximate number of queued elements.
+     */
+    public int size()
+    {
+        return keys.size();
+    }
+
+    /**
+     * Number of offered elements merged into an element that was already queued.
+     */
+    public long getCoalesced()
+    {
+        return coalesced.sum();
+    }
+
+    /**
+     * Number of queued elements dropped because the queue was full.
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * Number of elements offered again that were dropped because the queue was full.
+     */
+    public long getDroppedRetries()
+    {
+        return droppedRetries.sum();
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.stats.TimeStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compresses and decompresses the replication payloads of a store, and keeps the bytes
+ * on the wire and the time spent in the codec for every codec. The time does not include
+ * the time spent reading or writing the compressed stream, so it is close to the CPU cost
+ * of the codec even for payloads streamed over the network.
+ */
+public class CompressionStats
+{
+    private final Map<ReplicationCodec, CodecStats> codecs;
+
+    public CompressionStats()
+    {
+        Map<ReplicationCodec, CodecStats> codecs = new EnumMap<>(ReplicationCodec.class);
+        for (ReplicationCodec codec : ReplicationCodec.values()) {
+            codecs.put(codec, new CodecStats());
+        }
+        this.codecs = ImmutableMap.copyOf(codecs);
+    }
+
+    /**
+     * Returns a stream that compresses the data written to it into the specified stream.
+     * Closing it finishes the compressed stream, and closes the specified stream.
+     */
+    public OutputStream compress(ReplicationCodec codec, OutputStream output, int level)
+            throws IOException
+    {
+        checkNotNull(codec, "codec is null");
+        checkNotNull(output, "output is null");
+
+        if (codec == ReplicationCodec.NONE) {
+            return output;
+        }
+        MeteredOutputStream wire = new MeteredOutputStream(output);
+        return new CompressingOutputStream(codecs.get(codec), codec.compress(wire, level), wire);
+    }
+
+    public byte[] compress(ReplicationCodec codec, byte[] data, int level)
+            throws IOException
+    {
+        if (codec == ReplicationCodec.NONE) {
+            return data;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2);
+        try (OutputStream compressed = compress(codec, output, level)) {
+            compressed.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns a stream of the data decompressed from the specified stream.
+     */
+    public InputStream decompress(ReplicationCodec codec, InputStream input)
+            throws IOException
+    {
+        checkNotNull(codec, "codec is null");
+        checkNotNull(input, "input is null");
+
+        if (codec == ReplicationCodec.NONE) {
+            return input;
+        }
+        MeteredInputStream wire = new MeteredInputStream(input);
+        return new DecompressingInputStream(codecs.get(codec), codec.decompress(wire), wire);
+    }
+
+    @Managed
+    @Nested
+    public CodecStats getGzip()
+    {
+        return codecs.get(ReplicationCodec.GZIP);
+    }
+
+    @Managed
+    @Nested
+    public CodecStats getZstd()
+    {
+        return codecs.get(ReplicationCodec.ZSTD);
+    }
+
+    public static class CodecStats
+    {
+        private final AtomicLong uncompressedBytesWritten = new AtomicLong();
+        private final AtomicLong compressedBytesWritten = new AtomicLong();
+        private final AtomicLong compressedBytesRead = new AtomicLong();
+        private final AtomicLong uncompressedBytesRead = new AtomicLong();
+        private final TimeStat compressTime = new TimeStat(TimeUnit.MICROSECONDS);
+        private final TimeStat decompressTime = new TimeStat(TimeUnit.MICROSECONDS);
+
+        @Managed
+        public long getUncompressedBytesWritten()
+        {
+            return uncompressedBytesWritten.get();
+        }
+
+        @Managed
+        public long getCompressedBytesWritten()
+        {
+            return compressedBytesWritten.get();
+        }
+
+        @Managed
+        public long getCompressedBytesRead()
+        {
+            return compressedBytesRead.get();
+        }
+
+        @Managed
+        public long getUncompressedBytesRead()
+        {
+            return uncompressedBytesRead.get();
+        }
+
+        /**
+         * Compressed size divided by uncompressed size of everything written so far.
+         */
+        @Managed
+        public double getCompressionRatio()
+        {
+            long uncompressed = uncompressedBytesWritten.get();
+            if (uncompressed == 0) {
+                return 0;
+            }
+            return (double) compressedBytesWritten.get() / uncompressed;
+        }
+
+        /**
+         * Time spent compressing each payload.
+         */
+        @Managed
+        @Nested
+        public TimeStat getCompressTime()
+        {
+            return compressTime;
+        }
+
+        /**
+         * Time spent decompressing each payload.
+         */
+        @Managed
+        @Nested
+        public TimeStat getDecompressTime()
+        {
+            return decompressTime;
+        }
+    }
+
+    /**
+     * Counts the bytes and the time spent writing to the wrapped stream.
+     */
+    private static class MeteredOutputStream
+            extends FilterOutputStream
+    {
+        private long bytes;
+        private long nanos;
+
+        private MeteredOutputStream(OutputStream output)
+        {
+            super(output);
+        }
+
+        @Override
+        public void write(int b)
+                throws IOException
+        {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+            bytes += len;
+        }
+
+        @Override
+        public void flush()
+                throws IOException
+        {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    private static class CompressingOutputStream
+            extends FilterOutputStream
+    {
+        private final CodecStats stats;
+        private final MeteredOutputStream wire;
+        private long bytes;
+        private long nanos;
+        private boolean closed;
+
+        private CompressingOutputStream(CodecStats stats, OutputStream compressor, MeteredOutputStream wire)
+        {
+            super(compressor);
+            this.stats = stats;
+            this.wire = wire;
+        }
+
+        @Override
+        public void write(int b)
+                throws IOException
+        {
+            long start = System.nanoTime();
+            long wireNanos = wire.nanos;
+            out.write(b);
+            nanos += System.nanoTime() - start - (wire.nanos - wireNanos);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            long start = System.nanoTime();
+            long wireNanos = wire.nanos;
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start - (wire.nanos - wireNanos);
+            bytes += len;
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            long start = System.nanoTime();
+            long wireNanos = wire.nanos;
+            try {
+                // finishes the compressed stream
+                out.close();
+            }
+            finally {
+                nanos += System.nanoTime() - start - (wire.nanos - wireNanos);
+                stats.uncompressedBytesWritten.addAndGet(bytes);
+                stats.compressedBytesWritten.addAndGet(wire.bytes);
+                stats.compressTime.add(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes and the time spent reading from the wrapped stream.
+     */
+    private static class MeteredInputStream
+            extends FilterInputStream
+    {
+        private long bytes;
+        private long nanos;
+
+        private MeteredInputStream(InputStream input)
+        {
+            super(input);
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            long start = System.nanoTime();
+            int b = in.read();
+            nanos += System.nanoTime() - start;
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException
+        {
+            long start = System.nanoTime();
+            int read = in.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+    }
+
+    private static class DecompressingInputStream
+            extends FilterInputStream
+    {
+        private final CodecStats stats;
+        private final MeteredInputStream wire;
+        private long bytes;
+        private long nanos;
+        private boolean closed;
+
+        private DecompressingInputStream(CodecStats stats, InputStream decompressor, MeteredInputStream wire)
+        {
+            super(decompressor);
+            this.stats = stats;
+            this.wire = wire;
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            long start = System.nanoTime();
+            long wireNanos = wire.nanos;
+            int b = in.read();
+            nanos += System.nanoTime() - start - (wire.nanos - wireNanos);
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException
+        {
+            long start = System.nanoTime();
+            long wireNanos = wire.nanos;
+            int read = in.read(b, off, len);
+            nanos += System.nanoTime() - start - (wire.nanos - wireNanos);
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                in.close();
+            }
+            finally {
+                stats.compressedBytesRead.addAndGet(wire.bytes);
+                stats.uncompressedBytesRead.addAndGet(bytes);
+                stats.decompressTime.add(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
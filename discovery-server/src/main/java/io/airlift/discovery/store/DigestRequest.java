@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import com.google.errorprone.annotations.Immutable;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The (key hash, version) pairs of the entries in some Merkle tree buckets of the
+ * requesting node. Keys are identified by a 64-bit hash, which keeps the digest
+ * compact; a collision only means the colliding key is not synchronized by this
+ * exchange.
+ */
+@Immutable
+public class DigestRequest
+{
+    private static final HashFunction KEY_HASH = Hashing.murmur3_128();
+
+    private final List<Integer> buckets;
+    private final long[] keyHashes;
+    private final long[] sequences;
+
+    @JsonCreator
+    public DigestRequest(
+            @JsonProperty("buckets") List<Integer> buckets,
+            @JsonProperty("keyHashes") long[] keyHashes,
+            @JsonProperty("sequences") long[] sequences)
+    {
+        this.buckets = ImmutableList.copyOf(checkNotNull(buckets, "buckets is null"));
+        this.keyHashes = checkNotNull(keyHashes, "keyHashes is null").clone();
+        this.sequences = checkNotNull(sequences, "sequences is null").clone();
+        checkArgument(keyHashes.length == sequences.length, "keyHashes and sequences must have the same length");
+    }
+
+    public static long hashKey(byte[] key)
+    {
+        return KEY_HASH.hashBytes(key).asLong();
+    }
+
+    @JsonProperty
+    public List<Integer> getBuckets()
+    {
+        return buckets;
+    }
+
+    @JsonProperty
+    public long[] getKeyHashes()
+    {
+        return keyHashes.clone();
+    }
+
+    @JsonProperty
+    public long[] getSequences()
+    {
+        return sequences.clone();
+    }
+}
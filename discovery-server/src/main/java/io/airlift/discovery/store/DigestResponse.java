@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import com.google.errorprone.annotations.Immutable;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The entries that are newer on the responding node or missing on the requesting
+ * node, and the hashes of the keys the responding node wants from the requester.
+ */
+@Immutable
+public class DigestResponse
+{
+    private final List<Entry> entries;
+    private final long[] wantedKeyHashes;
+
+    @JsonCreator
+    public DigestResponse(
+            @JsonProperty("entries") List<Entry> entries,
+            @JsonProperty("wantedKeyHashes") long[] wantedKeyHashes)
+    {
+        this.entries = ImmutableList.copyOf(checkNotNull(entries, "entries is null"));
+        this.wantedKeyHashes = checkNotNull(wantedKeyHashes, "wantedKeyHashes is null").clone();
+    }
+
+    @JsonProperty
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    @JsonProperty
+    public long[] getWantedKeyHashes()
+    {
+        return wantedKeyHashes.clone();
+    }
+}
@@ -17,8 +17,10 @@ package io.airlift.discovery.store;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
+import io.airlift.log.Logger;
 import io.airlift.units.Duration;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
@@ -26,12 +28,17 @@ import org.joda.time.DateTime;
 import org.weakref.jmx.Managed;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Predicates.and;
 import static com.google.common.base.Predicates.not;
 import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
@@ -41,6 +48,9 @@ import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
  */
 public class DistributedStore
 {
+    private static final Logger log = Logger.get(DistributedStore.class);
+    private static final int MAX_LISTENER_BATCH_SIZE = 1000;
+
     private final String name;
     private final LocalStore localStore;
     private final RemoteStore remoteStore;
@@ -50,6 +60,8 @@ public class DistributedStore
 
     private final ScheduledExecutorService garbageCollector;
     private final AtomicLong lastGcTimestamp = new AtomicLong();
+    private final ExpirationQueue expirationQueue;
+    private final List<ListenerQueue> listeners = new CopyOnWriteArrayList<>();
 
     @Inject
     public DistributedStore(
@@ -67,13 +79,30 @@ public class DistributedStore
         checkNotNull(config, "config is null");
         tombstoneMaxAge = config.getTombstoneMaxAge();
         garbageCollectionInterval = config.getGarbageCollectionInterval();
+        expirationQueue = new ExpirationQueue(tombstoneMaxAge);
 
         garbageCollector = newSingleThreadScheduledExecutor(daemonThreadsNamed("distributed-store-gc-" + name));
+
+        localStore.addListener(changes -> {
+            for (StoreChange change : changes) {
+                if (change.getNewEntry() != null) {
+                    expirationQueue.add(change.getNewEntry());
+                }
+            }
+            for (ListenerQueue listener : listeners) {
+                listener.enqueue(changes);
+            }
+        });
     }
 
     @PostConstruct
     public void start()
     {
+        // entries loaded from disk were written before the listener was registered
+        for (Entry entry : localStore.getAll()) {
+            expirationQueue.add(entry);
+        }
+
         garbageCollector.scheduleAtFixedRate(new Runnable()
         {
             @Override
@@ -96,24 +125,37 @@ public class DistributedStore
         return lastGcTimestamp.get();
     }
 
+    @Managed
+    public int getPendingExpirations()
+    {
+        return expirationQueue.size();
+    }
+
     @Managed
     public void removeExpiredEntries()
     {
-        for (Entry entry : localStore.getAll()) {
-            if (isExpired(entry)) {
-                localStore.delete(entry.getKey(), entry.getVersion());
-            }
-        }
+        expireEntries();
 
         lastGcTimestamp.set(System.currentTimeMillis());
     }
 
-    private boolean isExpired(Entry entry)
+    // called before every read, so reads don't need to check each entry
+    private void expireEntries()
     {
-        long ageInMs = timeSupplier.get().getMillis() - entry.getTimestamp();
+        // the local store is not called while holding the queue lock, as it notifies listeners while holding its own locks
+        for (ExpirationQueue.Expiration expiration : expirationQueue.removeExpired(timeSupplier.get().getMillis())) {
+            localStore.delete(expiration.getKey(), expiration.getVersion());
+        }
+    }
 
-        return entry.getValue() == null && ageInMs > tombstoneMaxAge.toMillis() ||  // TODO: this is repeated in StoreResource
-                entry.getMaxAgeInMs() != null && ageInMs > entry.getMaxAgeInMs();
+    /**
+     * Adds a listener for all changes to this store: local writes, replicated writes
+     * and garbage collection. Changes are delivered in order, in batches, on the
+     * specified executor, and each listener has at most one delivery in progress.
+     */
+    public void addListener(StoreListener listener, Executor executor)
+    {
+        listeners.add(new ListenerQueue(listener, executor));
     }
 
     @PreDestroy
@@ -153,10 +195,11 @@ public class DistributedStore
     {
         checkNotNull(key, "key is null");
 
+        expireEntries();
         Entry entry = localStore.get(key);
 
         byte[] result = null;
-        if (entry != null && entry.getValue() != null && !isExpired(entry)) {
+        if (entry != null && entry.getValue() != null) {
             result = Arrays.copyOf(entry.getValue(), entry.getValue().length);
         }
 
@@ -177,30 +220,76 @@ public class DistributedStore
 
     public Iterable<Entry> getAll()
     {
-        return Iterables.filter(localStore.getAll(), and(not(expired()), not(tombstone())));
+        expireEntries();
+        return Iterables.filter(localStore.getAll(), not(tombstone()));
     }
 
-    private Predicate<? super Entry> expired()
+    private static Predicate<? super Entry> tombstone()
     {
         return new Predicate<Entry>()
         {
             @Override
             public boolean apply(Entry entry)
             {
-                return isExpired(entry);
+                return entry.getValue() == null;
             }
         };
     }
 
-    private static Predicate<? super Entry> tombstone()
+    private static class ListenerQueue
     {
-        return new Predicate<Entry>()
+        private final StoreListener listener;
+        private final Executor executor;
+        private final Queue<StoreChange> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private ListenerQueue(StoreListener listener, Executor executor)
         {
-            @Override
-            public boolean apply(Entry entry)
-            {
-                return entry.getValue() == null;
+            this.listener = checkNotNull(listener, "listener is null");
+            this.executor = checkNotNull(executor, "executor is null");
+        }
+
+        public void enqueue(List<StoreChange> changes)
+        {
+            queue.addAll(changes);
+            scheduleIfNecessary();
+        }
+
+        private void scheduleIfNecessary()
+        {
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::deliver);
             }
-        };
+        }
+
+        private void deliver()
+        {
+            try {
+                while (true) {
+                    ImmutableList.Builder<StoreChange> batch = ImmutableList.builder();
+                    int size = 0;
+                    StoreChange change;
+                    while (size < MAX_LISTENER_BATCH_SIZE && (change = queue.poll()) != null) {
+                        batch.add(change);
+                        size++;
+                    }
+                    if (size == 0) {
+                        break;
+                    }
+
+                    try {
+                        listener.onChanges(batch.build());
+                    }
+                    catch (RuntimeException e) {
+                        log.error(e, "Store listener failed");
+                    }
+                }
+            }
+            finally {
+                scheduled.set(false);
+            }
+            // changes may have been added after the queue was drained
+            scheduleIfNecessary();
+        }
     }
 }
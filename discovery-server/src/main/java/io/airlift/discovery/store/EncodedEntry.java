@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An entry with its Smile encoding. The entry is encoded once when it is queued for
+ * all peers, and the batch for each peer is built by concatenating the encoded
+ * entries, so the cost of encoding does not grow with the number of peers.
+ * <p>
+ * Each entry is encoded without the Smile header and without back references to
+ * names or values shared with earlier entries, so the encoded entries can be
+ * concatenated in any order.
+ */
+final class EncodedEntry
+{
+    private static final ObjectWriter ENTRY_WRITER = new ObjectMapper(SmileFactory.builder()
+            .disable(SmileGenerator.Feature.WRITE_HEADER)
+            .disable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+            .disable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build())
+            .writerFor(Entry.class);
+
+    // the header and array start of a Smile array of entries, and the array end
+    private static final byte[] ARRAY_START;
+    private static final byte[] ARRAY_END;
+
+    static {
+        byte[] emptyArray = encodeEmptyArray();
+        ARRAY_START = Arrays.copyOf(emptyArray, emptyArray.length - 1);
+        ARRAY_END = Arrays.copyOfRange(emptyArray, emptyArray.length - 1, emptyArray.length);
+    }
+
+    private final Entry entry;
+    private final byte[] encoded;
+
+    private EncodedEntry(Entry entry, byte[] encoded)
+    {
+        this.entry = entry;
+        this.encoded = encoded;
+    }
+
+    public static EncodedEntry encode(Entry entry)
+    {
+        checkNotNull(entry, "entry is null");
+        try {
+            return new EncodedEntry(entry, ENTRY_WRITER.writeValueAsBytes(entry));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Entry getEntry()
+    {
+        return entry;
+    }
+
+    public int getEncodedSize()
+    {
+        return encoded.length;
+    }
+
+    /**
+     * Returns a Smile array of the entries, which decodes as a list of entries.
+     */
+    public static byte[] toSmileArray(Collection<EncodedEntry> entries)
+    {
+        int size = ARRAY_START.length + ARRAY_END.length;
+        for (EncodedEntry entry : entries) {
+            size += entry.encoded.length;
+        }
+
+        byte[] array = new byte[size];
+        System.arraycopy(ARRAY_START, 0, array, 0, ARRAY_START.length);
+        int position = ARRAY_START.length;
+        for (EncodedEntry entry : entries) {
+            System.arraycopy(entry.encoded, 0, array, position, entry.encoded.length);
+            position += entry.encoded.length;
+        }
+        System.arraycopy(ARRAY_END, 0, array, position, ARRAY_END.length);
+        return array;
+    }
+
+    private static byte[] encodeEmptyArray()
+    {
+        // same settings as the entries, so the header does not announce shared names or values
+        SmileFactory factory = SmileFactory.builder()
+                .disable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+                .disable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(output)) {
+            generator.writeStartArray();
+            generator.writeEndArray();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+}
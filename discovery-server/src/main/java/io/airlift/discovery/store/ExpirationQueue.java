@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import io.airlift.units.Duration;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Min-heap of entry deadlines. An entry expires once it is older than its max age, or,
+ * for tombstones, older than the tombstone max age. Replaced entries are not removed
+ * from the heap; their deadlines simply become stale, and deleting a stale version
+ * is a no-op in the local store.
+ */
+class ExpirationQueue
+{
+    private final long tombstoneMaxAgeInMs;
+
+    @GuardedBy("this")
+    private final PriorityQueue<Expiration> heap = new PriorityQueue<>();
+
+    // lets callers skip the lock when nothing is due
+    private volatile long nextDeadline = Long.MAX_VALUE;
+
+    public ExpirationQueue(Duration tombstoneMaxAge)
+    {
+        this.tombstoneMaxAgeInMs = checkNotNull(tombstoneMaxAge, "tombstoneMaxAge is null").toMillis();
+    }
+
+    public void add(Entry entry)
+    {
+        long deadline;
+        if (entry.getValue() == null) {
+            deadline = entry.getTimestamp() + tombstoneMaxAgeInMs;
+        }
+        else if (entry.getMaxAgeInMs() != null) {
+            deadline = entry.getTimestamp() + entry.getMaxAgeInMs();
+        }
+        else {
+            return;
+        }
+
+        synchronized (this) {
+            heap.add(new Expiration(deadline, entry.getKey(), entry.getVersion()));
+            nextDeadline = heap.peek().getDeadline();
+        }
+    }
+
+    /**
+     * Removes and returns the entries whose deadline is before the specified time.
+     */
+    public List<Expiration> removeExpired(long now)
+    {
+        if (now <= nextDeadline) {
+            return ImmutableList.of();
+        }
+
+        ImmutableList.Builder<Expiration> expired = ImmutableList.builder();
+        synchronized (this) {
+            while (!heap.isEmpty() && heap.peek().getDeadline() < now) {
+                expired.add(heap.poll());
+            }
+            nextDeadline = heap.isEmpty() ? Long.MAX_VALUE : heap.peek().getDeadline();
+        }
+        return expired.build();
+    }
+
+    public synchronized int size()
+    {
+        return heap.size();
+    }
+
+    public static class Expiration
+            implements Comparable<Expiration>
+    {
+        private final long deadline;
+        private final byte[] key;
+        private final Version version;
+
+        private Expiration(long deadline, byte[] key, Version version)
+        {
+            this.deadline = deadline;
+            this.key = key;
+            this.version = version;
+        }
+
+        public long getDeadline()
+        {
+            return deadline;
+        }
+
+        public byte[] getKey()
+        {
+            return key;
+        }
+
+        public Version getVersion()
+        {
+            return version;
+        }
+
+        @Override
+        public int compareTo(Expiration other)
+        {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
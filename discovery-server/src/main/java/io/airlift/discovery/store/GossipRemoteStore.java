@@ -0,0 +1,263 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.http.client.HttpClient;
+import io.airlift.log.Logger;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.weakref.jmx.MBeanExporter;
+import org.weakref.jmx.Managed;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.inject.name.Names.named;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
+
+/**
+ * Replicates writes by gossip instead of pushing every write to every peer, so the
+ * requests a node sends do not grow with the size of the cluster. See {@link Gossiper}.
+ * <p>
+ * Rumors are sent to a peer through a {@link BatchProcessor}, like the writes of
+ * {@link HttpRemoteStore}, so the requests in flight to a peer are limited, a failing
+ * peer is backed off by its circuit breaker, and a rumor sent to a slow peer in several
+ * rounds is queued only once.
+ */
+public class GossipRemoteStore
+        implements RemoteStore
+{
+    private static final Logger log = Logger.get(GossipRemoteStore.class);
+
+    private final String name;
+    private final NodeInfo node;
+    private final ServiceSelector selector;
+    private final HttpClient httpClient;
+    private final LocalStore localStore;
+    private final StoreConfig config;
+    private final ConflictResolver conflictResolver;
+    private final CompressionStats compressionStats;
+    private final MBeanExporter mbeanExporter;
+    private final Duration interval;
+    private final Gossiper<ServiceDescriptor> gossiper;
+
+    // only updated by the gossip thread
+    private final ConcurrentMap<String, BatchProcessor<EncodedEntry>> processors = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+    private ScheduledExecutorService senderExecutor;
+    private ScheduledFuture<?> future;
+
+    public GossipRemoteStore(
+            String name,
+            NodeInfo node,
+            ServiceSelector selector,
+            StoreConfig config,
+            HttpClient httpClient,
+            LocalStore localStore,
+            ConflictResolver conflictResolver,
+            CompressionStats compressionStats,
+            MBeanExporter mbeanExporter)
+    {
+        this.name = checkNotNull(name, "name is null");
+        this.node = checkNotNull(node, "node is null");
+        this.selector = checkNotNull(selector, "selector is null");
+        this.config = checkNotNull(config, "config is null");
+        this.httpClient = checkNotNull(httpClient, "httpClient is null");
+        this.localStore = checkNotNull(localStore, "localStore is null");
+        this.conflictResolver = checkNotNull(conflictResolver, "conflictResolver is null");
+        this.compressionStats = checkNotNull(compressionStats, "compressionStats is null");
+        this.mbeanExporter = checkNotNull(mbeanExporter, "mbeanExporter is null");
+
+        this.interval = config.getGossipInterval();
+        this.gossiper = new Gossiper<>(
+                config.getGossipFanout(),
+                config.getGossipRumorRounds(),
+                config.getQueueSize(),
+                config.getMaxBatchSize(),
+                config.getTargetBatchBytes().toBytes(),
+                this::getPeers,
+                this::send,
+                new Random());
+    }
+
+    @PostConstruct
+    public synchronized void start()
+    {
+        if (future == null) {
+            // entries received from peers are passed on
+            localStore.addListener(gossiper::onChanges);
+
+            // note: this *must* be single threaded for the shutdown logic to work correctly
+            executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("gossip-remote-store-" + name));
+            senderExecutor = newScheduledThreadPool(config.getSenderThreads(), daemonThreadsNamed("gossip-remote-store-" + name + "-sender-%s"));
+            future = executor.scheduleWithFixedDelay(() -> {
+                try {
+                    gossiper.runRound();
+                }
+                catch (Throwable e) {
+                    log.warn(e, "Error running gossip round");
+                }
+            }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown()
+    {
+        if (future != null) {
+            future.cancel(true);
+
+            try {
+                // stop the processors after any round that is still running, as HttpRemoteStore does
+                executor.submit(() -> updateProcessors(ImmutableList.of())).get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+
+            executor.shutdownNow();
+            senderExecutor.shutdownNow();
+            future = null;
+        }
+    }
+
+    @Override
+    public void put(Entry entry)
+    {
+        gossiper.spread(entry);
+    }
+
+    private List<ServiceDescriptor> getPeers()
+    {
+        ImmutableList.Builder<ServiceDescriptor> peers = ImmutableList.builder();
+        for (ServiceDescriptor descriptor : selector.selectAllServices()) {
+            if (!node.getNodeId().equals(descriptor.getNodeId())) {
+                peers.add(descriptor);
+            }
+        }
+        List<ServiceDescriptor> result = peers.build();
+        updateProcessors(result);
+        return result;
+    }
+
+    private void updateProcessors(List<ServiceDescriptor> peers)
+    {
+        Set<String> nodeIds = peers.stream()
+                .map(ServiceDescriptor::getNodeId)
+                .collect(toImmutableSet());
+
+        Iterator<Map.Entry<String, BatchProcessor<EncodedEntry>>> iterator = processors.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, BatchProcessor<EncodedEntry>> entry = iterator.next();
+            if (!nodeIds.contains(entry.getKey())) {
+                iterator.remove();
+                entry.getValue().stop();
+                mbeanExporter.unexport(nameFor(entry.getKey()));
+            }
+        }
+
+        for (ServiceDescriptor peer : peers) {
+            if (!processors.containsKey(peer.getNodeId())) {
+                BatchProcessor<EncodedEntry> processor = new BatchProcessor<>(
+                        new HttpRemoteStore.MyBatchHandler(name, peer, httpClient, config, compressionStats),
+                        config,
+                        senderExecutor,
+                        entry -> ByteBuffer.wrap(entry.getEntry().getKey()),
+                        this::resolve,
+                        EncodedEntry::getEncodedSize);
+
+                processor.start();
+                processors.put(peer.getNodeId(), processor);
+                mbeanExporter.export(nameFor(peer.getNodeId()), processor);
+            }
+        }
+    }
+
+    private String nameFor(String id)
+    {
+        return generatedNameOf(BatchProcessor.class, named(name + "-" + id));
+    }
+
+    private EncodedEntry resolve(EncodedEntry a, EncodedEntry b)
+    {
+        return conflictResolver.resolve(a.getEntry(), b.getEntry()) == a.getEntry() ? a : b;
+    }
+
+    private void send(ServiceDescriptor peer, List<EncodedEntry> entries)
+    {
+        BatchProcessor<EncodedEntry> processor = processors.get(peer.getNodeId());
+        if (processor == null) {
+            return;
+        }
+        // a full queue drops the oldest rumors, which the other peers that spread them make up for
+        for (EncodedEntry entry : entries) {
+            processor.put(entry);
+        }
+    }
+
+    @Managed
+    public int getHotRumors()
+    {
+        return gossiper.getHotRumors();
+    }
+
+    @Managed
+    public long getRounds()
+    {
+        return gossiper.getRounds();
+    }
+
+    @Managed
+    public long getMessagesSent()
+    {
+        return gossiper.getMessagesSent();
+    }
+
+    @Managed
+    public long getEntriesSent()
+    {
+        return gossiper.getEntriesSent();
+    }
+
+    @Managed
+    public long getDroppedRumors()
+    {
+        return gossiper.getDroppedRumors();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.ThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Spreads entries by rumor mongering. An entry that is new to this node becomes a hot
+ * rumor, and in every round all hot rumors are sent to each of {@code fanout} randomly
+ * chosen peers, in batches of at most {@code maxBatchSize} entries and about
+ * {@code targetBatchBytes} bytes. A rumor stays hot for {@code rumorRounds} rounds. Peers that learn a rumor spread it in the same way, while entries a node
+ * already has are not spread again, so an entry reaches all nodes in about
+ * log(nodes) rounds and the number of messages a node sends per round does not depend
+ * on the number of nodes.
+ * <p>
+ * At most {@code maxRumors} rumors are hot. When a burst of writes exceeds that, the
+ * oldest rumors are dropped, like entries of a full replication queue.
+ * <p>
+ * Rumor mongering does not guarantee that every node learns every entry. The
+ * Replicator repairs the rare misses.
+ * <p>
+ * Rounds are run by the caller, and sending is done by the sender function, so this
+ * class can be driven by a simulation as well as by {@link GossipRemoteStore}.
+ */
+@ThreadSafe
+class Gossiper<P>
+{
+    private final int fanout;
+    private final int rumorRounds;
+    private final int maxBatchSize;
+    private final long targetBatchBytes;
+    private final Supplier<List<P>> peers;
+    private final BiConsumer<P, List<EncodedEntry>> sender;
+    private final Random random;
+
+    private final CoalescingQueue<Rumor> rumors;
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong entriesSent = new AtomicLong();
+
+    public Gossiper(
+            int fanout,
+            int rumorRounds,
+            int maxRumors,
+            int maxBatchSize,
+            long targetBatchBytes,
+            Supplier<List<P>> peers,
+            BiConsumer<P, List<EncodedEntry>> sender,
+            Random random)
+    {
+        checkArgument(fanout > 0, "fanout must be greater than 0");
+        checkArgument(rumorRounds > 0, "rumorRounds must be greater than 0");
+        checkArgument(maxRumors > 0, "maxRumors must be greater than 0");
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        checkArgument(targetBatchBytes > 0, "targetBatchBytes must be greater than 0");
+
+        this.fanout = fanout;
+        this.rumorRounds = rumorRounds;
+        this.maxBatchSize = maxBatchSize;
+        this.targetBatchBytes = targetBatchBytes;
+        this.rumors = new CoalescingQueue<>(maxRumors, rumor -> ByteBuffer.wrap(rumor.getEntry().getEntry().getKey()), Gossiper::newer);
+        this.peers = checkNotNull(peers, "peers is null");
+        this.sender = checkNotNull(sender, "sender is null");
+        this.random = checkNotNull(random, "random is null");
+    }
+
+    /**
+     * Makes the entry a hot rumor, unless the same or a newer version already is.
+     */
+    public void spread(Entry entry)
+    {
+        checkNotNull(entry, "entry is null");
+
+        rumors.offer(new Rumor(EncodedEntry.encode(entry), rumorRounds));
+    }
+
+    private static Rumor newer(Rumor current, Rumor rumor)
+    {
+        if (current.getEntry().getEntry().getVersion().compare(rumor.getEntry().getEntry().getVersion()) == Version.Occurs.BEFORE) {
+            return rumor;
+        }
+        return current;
+    }
+
+    /**
+     * Spreads the entries of the changes, so entries received from peers are passed on.
+     */
+    public void onChanges(List<StoreChange> changes)
+    {
+        for (StoreChange change : changes) {
+            if (change.getNewEntry() != null) {
+                spread(change.getNewEntry());
+            }
+        }
+    }
+
+    /**
+     * Sends the hot rumors to {@code fanout} random peers, and ages them. Only one
+     * thread at a time may run a round. Returns the number of messages sent.
+     */
+    public int runRound()
+    {
+        rounds.incrementAndGet();
+
+        List<Rumor> hot = new ArrayList<>();
+        rumors.drainTo(hot, rumors.size());
+        if (hot.isEmpty()) {
+            return 0;
+        }
+
+        List<EncodedEntry> entries = new ArrayList<>(hot.size());
+        for (Rumor rumor : hot) {
+            entries.add(rumor.getEntry());
+            Rumor aged = rumor.age();
+            if (aged != null) {
+                // a rumor spread while this round ran is at least as hot, and aged rumors never evict new ones
+                rumors.offerRetry(aged);
+            }
+        }
+        List<List<EncodedEntry>> batches = split(entries);
+
+        List<P> targets = choosePeers();
+        for (P peer : targets) {
+            for (List<EncodedEntry> batch : batches) {
+                sender.accept(peer, batch);
+            }
+        }
+        int messages = targets.size() * batches.size();
+        messagesSent.addAndGet(messages);
+        entriesSent.addAndGet((long) targets.size() * entries.size());
+        return messages;
+    }
+
+    private List<List<EncodedEntry>> split(List<EncodedEntry> entries)
+    {
+        ImmutableList.Builder<List<EncodedEntry>> batches = ImmutableList.builder();
+        int start = 0;
+        while (start < entries.size()) {
+            // same limits as the batches of the replication queue
+            int end = start;
+            long bytes = 0;
+            while (end < entries.size() && end - start < maxBatchSize && bytes < targetBatchBytes) {
+                bytes += entries.get(end).getEncodedSize();
+                end++;
+            }
+            batches.add(ImmutableList.copyOf(entries.subList(start, end)));
+            start = end;
+        }
+        return batches.build();
+    }
+
+    private List<P> choosePeers()
+    {
+        List<P> candidates = new ArrayList<>(peers.get());
+        if (candidates.size() <= fanout) {
+            return candidates;
+        }
+        // partial Fisher-Yates shuffle
+        for (int i = 0; i < fanout; i++) {
+            Collections.swap(candidates, i, i + random.nextInt(candidates.size() - i));
+        }
+        return candidates.subList(0, fanout);
+    }
+
+    public int getHotRumors()
+    {
+        return rumors.size();
+    }
+
+    /**
+     * Number of rumors dropped because {@code maxRumors} rumors were hot.
+     */
+    public long getDroppedRumors()
+    {
+        return rumors.getDropped() + rumors.getDroppedRetries();
+    }
+
+    public long getRounds()
+    {
+        return rounds.get();
+    }
+
+    public long getMessagesSent()
+    {
+        return messagesSent.get();
+    }
+
+    public long getEntriesSent()
+    {
+        return entriesSent.get();
+    }
+
+    private static class Rumor
+    {
+        private final EncodedEntry entry;
+        private final int remainingRounds;
+
+        private Rumor(EncodedEntry entry, int remainingRounds)
+        {
+            this.entry = entry;
+            this.remainingRounds = remainingRounds;
+        }
+
+        public EncodedEntry getEntry()
+        {
+            return entry;
+        }
+
+        /**
+         * Returns the rumor after one more round, or null if it is no longer hot.
+         */
+        public Rumor age()
+        {
+            if (remainingRounds <= 1) {
+                return null;
+            }
+            return new Rumor(entry, remainingRounds - 1);
+        }
+    }
+}
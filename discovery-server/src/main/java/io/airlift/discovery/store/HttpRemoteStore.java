@@ -15,20 +15,17 @@
  */
 package io.airlift.discovery.store;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import io.airlift.discovery.client.ServiceDescriptor;
 import io.airlift.discovery.client.ServiceSelector;
 import io.airlift.http.client.HttpClient;
 import io.airlift.http.client.Request;
-import io.airlift.json.JsonCodec;
-import io.airlift.json.JsonCodecFactory;
 import io.airlift.log.Logger;
 import io.airlift.node.NodeInfo;
 import io.airlift.units.Duration;
@@ -37,7 +34,10 @@ import jakarta.annotation.PreDestroy;
 import org.weakref.jmx.MBeanExporter;
 import org.weakref.jmx.Managed;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -59,10 +59,13 @@ import static com.google.common.base.Predicates.in;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.Iterables.filter;
 import static com.google.common.collect.Iterables.transform;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.inject.name.Names.named;
 import static io.airlift.concurrent.Threads.daemonThreadsNamed;
-import static io.airlift.http.client.JsonBodyGenerator.jsonBodyGenerator;
+import static io.airlift.http.client.StaticBodyGenerator.createStaticBodyGenerator;
 import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static org.weakref.jmx.ObjectNames.generatedNameOf;
 
@@ -71,18 +74,21 @@ public class HttpRemoteStore
 {
     private static final Logger log = Logger.get(HttpRemoteStore.class);
 
-    private final int maxBatchSize;
-    private final int queueSize;
+    private final StoreConfig config;
     private final Duration updateInterval;
+    private final int senderThreads;
 
-    private final ConcurrentMap<String, BatchProcessor<Entry>> processors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BatchProcessor<EncodedEntry>> processors = new ConcurrentHashMap<>();
     private final String name;
     private final NodeInfo node;
     private final ServiceSelector selector;
     private final HttpClient httpClient;
+    private final ConflictResolver conflictResolver;
+    private final CompressionStats compressionStats;
 
     private Future<?> future;
     private ScheduledExecutorService executor;
+    private ScheduledExecutorService senderExecutor;
 
     private final AtomicLong lastRemoteServerRefreshTimestamp = new AtomicLong();
     private final MBeanExporter mbeanExporter;
@@ -93,12 +99,16 @@ public class HttpRemoteStore
             ServiceSelector selector,
             StoreConfig config,
             HttpClient httpClient,
+            ConflictResolver conflictResolver,
+            CompressionStats compressionStats,
             MBeanExporter mbeanExporter)
     {
         Preconditions.checkNotNull(name, "name is null");
         Preconditions.checkNotNull(node, "node is null");
         Preconditions.checkNotNull(selector, "selector is null");
         Preconditions.checkNotNull(httpClient, "httpClient is null");
+        Preconditions.checkNotNull(conflictResolver, "conflictResolver is null");
+        Preconditions.checkNotNull(compressionStats, "compressionStats is null");
         Preconditions.checkNotNull(config, "config is null");
         Preconditions.checkNotNull(mbeanExporter, "mBeanExporter is null");
 
@@ -106,11 +116,13 @@ public class HttpRemoteStore
         this.node = node;
         this.selector = selector;
         this.httpClient = httpClient;
+        this.conflictResolver = conflictResolver;
+        this.compressionStats = compressionStats;
         this.mbeanExporter = mbeanExporter;
 
-        maxBatchSize = config.getMaxBatchSize();
-        queueSize = config.getQueueSize();
+        this.config = config;
         updateInterval = config.getRemoteUpdateInterval();
+        senderThreads = config.getSenderThreads();
     }
 
     @PostConstruct
@@ -119,6 +131,8 @@ public class HttpRemoteStore
         if (future == null) {
             // note: this *must* be single threaded for the shutdown logic to work correctly
             executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("http-remote-store-" + name));
+            // shared by the processors of all peers, so idle peers have no thread
+            senderExecutor = newScheduledThreadPool(senderThreads, daemonThreadsNamed("http-remote-store-" + name + "-sender-%s"));
 
             future = executor.scheduleWithFixedDelay(new Runnable()
             {
@@ -163,6 +177,7 @@ public class HttpRemoteStore
             }
 
             executor.shutdownNow();
+            senderExecutor.shutdownNow();
 
             future = null;
         }
@@ -173,9 +188,9 @@ public class HttpRemoteStore
         Set<String> nodeIds = ImmutableSet.copyOf(transform(descriptors, getNodeIdFunction()));
 
         // remove old ones
-        Iterator<Map.Entry<String, BatchProcessor<Entry>>> iterator = processors.entrySet().iterator();
+        Iterator<Map.Entry<String, BatchProcessor<EncodedEntry>>> iterator = processors.entrySet().iterator();
         while (iterator.hasNext()) {
-            Map.Entry<String, BatchProcessor<Entry>> entry = iterator.next();
+            Map.Entry<String, BatchProcessor<EncodedEntry>> entry = iterator.next();
 
             if (!nodeIds.contains(entry.getKey())) {
                 iterator.remove();
@@ -188,10 +203,13 @@ public class HttpRemoteStore
         Iterable<ServiceDescriptor> newDescriptors = filter(descriptors, predicate);
 
         for (ServiceDescriptor descriptor : newDescriptors) {
-            BatchProcessor<Entry> processor = new BatchProcessor<Entry>(descriptor.getNodeId(),
-                    new MyBatchHandler(name, descriptor, httpClient),
-                    maxBatchSize,
-                    queueSize);
+            BatchProcessor<EncodedEntry> processor = new BatchProcessor<>(
+                    new MyBatchHandler(name, descriptor, httpClient, config, compressionStats),
+                    config,
+                    senderExecutor,
+                    entry -> ByteBuffer.wrap(entry.getEntry().getKey()),
+                    this::resolve,
+                    EncodedEntry::getEncodedSize);
 
             processor.start();
             processors.put(descriptor.getNodeId(), processor);
@@ -227,43 +245,68 @@ public class HttpRemoteStore
     @Override
     public void put(Entry entry)
     {
-        for (BatchProcessor<Entry> processor : processors.values()) {
-            processor.put(entry);
+        if (processors.isEmpty()) {
+            return;
+        }
+
+        // encoded once, and shared by the batches of all peers
+        EncodedEntry encoded = EncodedEntry.encode(entry);
+        for (BatchProcessor<EncodedEntry> processor : processors.values()) {
+            processor.put(encoded);
         }
     }
 
-    private static class MyBatchHandler
-            implements BatchProcessor.BatchHandler<Entry>
+    private EncodedEntry resolve(EncodedEntry a, EncodedEntry b)
     {
-        private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
-        private static final JsonCodec<Collection<Entry>> CODEC = new JsonCodecFactory(() -> SMILE_MAPPER).jsonCodec(new TypeToken<>() {});
+        return conflictResolver.resolve(a.getEntry(), b.getEntry()) == a.getEntry() ? a : b;
+    }
 
+    // also sends the rumors of GossipRemoteStore
+    static class MyBatchHandler
+            implements BatchProcessor.BatchHandler<EncodedEntry>
+    {
         private final URI uri;
         private final HttpClient httpClient;
+        private final ReplicationCodec codec;
+        private final int compressionLevel;
+        private final CompressionStats compressionStats;
 
-        public MyBatchHandler(String name, ServiceDescriptor descriptor, HttpClient httpClient)
+        public MyBatchHandler(String name, ServiceDescriptor descriptor, HttpClient httpClient, StoreConfig config, CompressionStats compressionStats)
         {
             this.httpClient = httpClient;
+            this.codec = config.getCompression();
+            this.compressionLevel = config.getCompressionLevel();
+            this.compressionStats = compressionStats;
 
             // TODO: build URI from resource class
             uri = URI.create(descriptor.getProperties().get("http") + "/v1/store/" + name);
         }
 
         @Override
-        public void processBatch(Collection<Entry> entries)
+        public ListenableFuture<?> processBatch(Collection<EncodedEntry> entries)
         {
-            Request request = Request.Builder.preparePost()
+            byte[] body = EncodedEntry.toSmileArray(entries);
+            Request.Builder request = Request.Builder.preparePost()
                     .setUri(uri)
-                    .setHeader("Content-Type", "application/x-jackson-smile")
-                    .setBodyGenerator(jsonBodyGenerator(CODEC, entries))
-                    .build();
-
-            try {
-                httpClient.execute(request, createStatusResponseHandler());
-            }
-            catch (RuntimeException e) {
-                // ignore
+                    .setHeader("Content-Type", "application/x-jackson-smile");
+            if (codec != ReplicationCodec.NONE) {
+                try {
+                    body = compressionStats.compress(codec, body, compressionLevel);
+                    request.setHeader("Content-Encoding", codec.getEncoding());
+                }
+                catch (IOException e) {
+                    return immediateFailedFuture(e);
+                }
             }
+            request.setBodyGenerator(createStaticBodyGenerator(body));
+
+            // a rejected batch is a failure, so its entries are retried
+            return Futures.transform(httpClient.executeAsync(request.build(), createStatusResponseHandler()), response -> {
+                if (response.getStatusCode() / 100 != 2) {
+                    throw new UncheckedIOException(new IOException("Unexpected response status " + response.getStatusCode() + " from " + uri));
+                }
+                return response;
+            }, directExecutor());
         }
     }
 }
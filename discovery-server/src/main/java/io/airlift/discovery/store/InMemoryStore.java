@@ -16,12 +16,14 @@
 package io.airlift.discovery.store;
 
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
 import com.google.inject.Inject;
+import jakarta.annotation.Nullable;
 
-import java.nio.ByteBuffer;
 import java.util.EnumSet;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import static io.airlift.discovery.store.Version.Occurs.AFTER;
 import static io.airlift.discovery.store.Version.Occurs.SAME;
@@ -29,8 +31,10 @@ import static io.airlift.discovery.store.Version.Occurs.SAME;
 public class InMemoryStore
         implements LocalStore
 {
-    private final ConcurrentMap<ByteBuffer, Entry> map = new ConcurrentHashMap<ByteBuffer, Entry>();
+    // sorted like LevelDB keys, so scans of both stores return the same order
+    private final ConcurrentNavigableMap<byte[], Entry> map = new ConcurrentSkipListMap<>(UnsignedBytes.lexicographicalComparator());
     private final ConflictResolver resolver;
+    private final StoreListeners listeners = new StoreListeners();
 
     @Inject
     public InMemoryStore(ConflictResolver resolver)
@@ -41,18 +45,24 @@ public class InMemoryStore
     @Override
     public void put(Entry entry)
     {
-        ByteBuffer key = ByteBuffer.wrap(entry.getKey());
+        byte[] key = entry.getKey();
 
         boolean done = false;
         while (!done) {
             Entry old = map.putIfAbsent(key, entry);
 
             done = true;
-            if (old != null) {
+            if (old == null) {
+                listeners.fire(entry.getKey(), null, entry);
+            }
+            else {
                 entry = resolver.resolve(old, entry);
 
                 if (entry != old) {
                     done = map.replace(key, old, entry);
+                    if (done) {
+                        listeners.fire(entry.getKey(), old, entry);
+                    }
                 }
             }
         }
@@ -63,7 +73,7 @@ public class InMemoryStore
     {
         Preconditions.checkNotNull(key, "key is null");
 
-        return map.get(ByteBuffer.wrap(key));
+        return map.get(key);
     }
 
     @Override
@@ -71,15 +81,16 @@ public class InMemoryStore
     {
         Preconditions.checkNotNull(key, "key is null");
 
-        ByteBuffer wrappedKey = ByteBuffer.wrap(key);
-
         boolean done = false;
         while (!done) {
-            Entry old = map.get(wrappedKey);
+            Entry old = map.get(key);
 
             done = true;
             if (old != null && EnumSet.of(AFTER, SAME).contains(version.compare(old.getVersion()))) {
-                done = map.remove(wrappedKey, old);
+                done = map.remove(key, old);
+                if (done) {
+                    listeners.fire(key, old, null);
+                }
             }
         }
     }
@@ -89,4 +100,46 @@ public class InMemoryStore
     {
         return map.values();
     }
+
+    /**
+     * The iterator is weakly consistent: it reflects some of the changes made while
+     * it is open.
+     */
+    @Override
+    public EntryIterator scan(@Nullable byte[] afterKey)
+    {
+        Iterator<Entry> iterator;
+        if (afterKey == null) {
+            iterator = map.values().iterator();
+        }
+        else {
+            iterator = map.tailMap(afterKey, false).values().iterator();
+        }
+
+        return new EntryIterator()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Entry next()
+            {
+                return iterator.next();
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+
+    @Override
+    public void addListener(StoreListener listener)
+    {
+        listeners.add(listener);
+    }
 }
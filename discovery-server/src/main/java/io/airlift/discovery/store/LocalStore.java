@@ -15,6 +15,8 @@
  */
 package io.airlift.discovery.store;
 
+import jakarta.annotation.Nullable;
+
 public interface LocalStore
 {
     void put(Entry entry);
@@ -24,4 +26,16 @@ public interface LocalStore
     void delete(byte[] key, Version version);
 
     Iterable<Entry> getAll();
+
+    /**
+     * Returns an iterator over the entries with keys after the specified key, or over
+     * all entries if the key is null, in unsigned lexicographic order of their keys.
+     * The iterator must be closed.
+     */
+    EntryIterator scan(@Nullable byte[] afterKey);
+
+    /**
+     * Adds a listener that is called on the writing thread after every change.
+     */
+    void addListener(StoreListener listener);
 }
@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.errorprone.annotations.Immutable;
+import com.google.errorprone.annotations.ThreadSafe;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.discovery.store.Version.Occurs.AFTER;
+import static io.airlift.discovery.store.Version.Occurs.BEFORE;
+
+/**
+ * Hash tree over the entries of a local store, used to find the parts of the store
+ * that differ between two nodes without transferring the entries. Keys are assigned to
+ * {@link #LEAF_COUNT} buckets by key hash. The hash of a bucket is the XOR of the
+ * hashes of its (key, version) pairs, so it can be updated in constant time on every
+ * change, and inner nodes are computed from the buckets on demand.
+ * <p>
+ * Each bucket keeps the newest version it has seen for a key, so a tree can be registered
+ * as a listener first and then seeded with {@link #addAll} from a snapshot of the store:
+ * snapshot entries older than a change the listener already applied are ignored.
+ */
+@ThreadSafe
+public class MerkleTree
+        implements StoreListener
+{
+    public static final int DEPTH = 10;
+    public static final int LEAF_COUNT = 1 << DEPTH;
+
+    private static final HashFunction BUCKET_HASH = Hashing.murmur3_32_fixed();
+    private static final HashFunction ENTRY_HASH = Hashing.murmur3_128();
+
+    private final Leaf[] leaves = new Leaf[LEAF_COUNT];
+
+    private volatile boolean seeded;
+
+    public MerkleTree()
+    {
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = new Leaf();
+        }
+    }
+
+    public static int bucketOf(byte[] key)
+    {
+        return BUCKET_HASH.hashBytes(key).asInt() >>> (Integer.SIZE - DEPTH);
+    }
+
+    @Override
+    public void onChanges(List<StoreChange> changes)
+    {
+        for (StoreChange change : changes) {
+            Leaf leaf = leaves[bucketOf(change.getKey())];
+            ByteBuffer key = ByteBuffer.wrap(change.getKey());
+            if (change.getNewEntry() == null) {
+                leaf.remove(key, change.getOldEntry().getVersion());
+            }
+            else {
+                leaf.put(key, change.getNewEntry().getVersion(), hashOf(change.getNewEntry()));
+            }
+        }
+    }
+
+    /**
+     * Adds the entries, keeping the newer version for keys that are already present or that
+     * were removed by a change seen before the first call completed.
+     */
+    public void addAll(Iterable<Entry> entries)
+    {
+        for (Entry entry : entries) {
+            leaves[bucketOf(entry.getKey())].put(ByteBuffer.wrap(entry.getKey()), entry.getVersion(), hashOf(entry));
+        }
+
+        if (!seeded) {
+            // removals only need to be remembered until the initial snapshot has been applied
+            seeded = true;
+            for (Leaf leaf : leaves) {
+                leaf.forgetRemovals();
+            }
+        }
+    }
+
+    /**
+     * Returns the hashes of the nodes at the specified level, from left to right.
+     * Level 0 is the root and level {@link #DEPTH} are the buckets.
+     */
+    public long[] getLevel(int level)
+    {
+        checkArgument(level >= 0 && level <= DEPTH, "level must be between 0 and %s", DEPTH);
+
+        int leavesPerNode = 1 << (DEPTH - level);
+        long[] hashes = new long[1 << level];
+        for (int node = 0; node < hashes.length; node++) {
+            long hash = 1;
+            for (int i = node * leavesPerNode; i < (node + 1) * leavesPerNode; i++) {
+                hash = 31 * hash + leaves[i].getHash();
+            }
+            hashes[node] = hash;
+        }
+        return hashes;
+    }
+
+    public long getRootHash()
+    {
+        return getLevel(0)[0];
+    }
+
+    /**
+     * Returns the keys currently in the specified bucket.
+     */
+    public List<byte[]> getKeys(int bucket)
+    {
+        checkArgument(bucket >= 0 && bucket < LEAF_COUNT, "bucket must be between 0 and %s", LEAF_COUNT - 1);
+        return leaves[bucket].getKeys();
+    }
+
+    private static long hashOf(Entry entry)
+    {
+        return ENTRY_HASH.newHasher()
+                .putBytes(entry.getKey())
+                .putLong(entry.getVersion().getSequence())
+                .putBoolean(entry.getValue() == null)
+                .hash()
+                .asLong();
+    }
+
+    @ThreadSafe
+    private class Leaf
+    {
+        @GuardedBy("this")
+        private final Map<ByteBuffer, Slot> slots = new HashMap<>();
+
+        @GuardedBy("this")
+        private long hash;
+
+        public synchronized void put(ByteBuffer key, Version version, long entryHash)
+        {
+            Slot old = slots.get(key);
+            if (old != null) {
+                if (old.removed) {
+                    // the key was removed after the entry was read
+                    if (version.compare(old.version) != AFTER) {
+                        return;
+                    }
+                }
+                else {
+                    if (version.compare(old.version) == BEFORE) {
+                        return;
+                    }
+                    hash ^= old.hash;
+                }
+            }
+            slots.put(key, new Slot(version, entryHash, false));
+            hash ^= entryHash;
+        }
+
+        public synchronized void remove(ByteBuffer key, Version version)
+        {
+            Slot old = slots.get(key);
+            if (old != null && version.compare(old.version) == BEFORE) {
+                // listeners can be notified out of order, and the key was written again after the removed entry
+                return;
+            }
+            slots.remove(key);
+            if (old != null && !old.removed) {
+                hash ^= old.hash;
+            }
+            if (!seeded) {
+                slots.put(key, new Slot(version, 0, true));
+            }
+        }
+
+        public synchronized void forgetRemovals()
+        {
+            slots.values().removeIf(slot -> slot.removed);
+        }
+
+        public synchronized long getHash()
+        {
+            return hash;
+        }
+
+        public synchronized List<byte[]> getKeys()
+        {
+            ImmutableList.Builder<byte[]> keys = ImmutableList.builder();
+            for (Map.Entry<ByteBuffer, Slot> entry : slots.entrySet()) {
+                if (!entry.getValue().removed) {
+                    keys.add(entry.getKey().array());
+                }
+            }
+            return keys.build();
+        }
+    }
+
+    @Immutable
+    private static class Slot
+    {
+        private final Version version;
+        private final long hash;
+        private final boolean removed;
+
+        private Slot(Version version, long hash, boolean removed)
+        {
+            this.version = version;
+            this.hash = hash;
+            this.removed = removed;
+        }
+    }
+}
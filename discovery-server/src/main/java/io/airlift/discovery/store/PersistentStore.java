@@ -18,19 +18,27 @@ package io.airlift.discovery.store;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 import io.airlift.log.Logger;
+import jakarta.annotation.Nullable;
 import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.impl.Iq80DBFactory;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.Map;
 
 import static com.google.common.base.Predicates.notNull;
+import static io.airlift.discovery.store.Version.Occurs.AFTER;
+import static io.airlift.discovery.store.Version.Occurs.SAME;
 
 public class PersistentStore
         implements LocalStore
@@ -38,6 +46,7 @@ public class PersistentStore
     private static final Logger log = Logger.get(PersistentStore.class);
     private final DB db;
     private final ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+    private final StoreListeners listeners = new StoreListeners();
 
     @Inject
     public PersistentStore(PersistentStoreConfig config)
@@ -46,8 +55,9 @@ public class PersistentStore
         db = Iq80DBFactory.factory.open(config.getLocation(), new Options().createIfMissing(true));
     }
 
+    // writes are serialized so listeners see the entry they replace
     @Override
-    public void put(Entry entry)
+    public synchronized void put(Entry entry)
     {
         byte[] dbEntry;
         try {
@@ -57,24 +67,46 @@ public class PersistentStore
             throw new UncheckedIOException(e);
         }
 
+        Entry old = getForListeners(entry.getKey());
         db.put(entry.getKey(), dbEntry);
+        listeners.fire(entry.getKey(), old, entry);
     }
 
     @Override
     public Entry get(byte[] key)
     {
+        byte[] value = db.get(key);
+        if (value == null) {
+            return null;
+        }
+
         try {
-            return mapper.readValue(db.get(key), Entry.class);
+            return mapper.readValue(value, Entry.class);
         }
         catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    // the version check and the delete happen under the write lock, so a stale
+    // delete (e.g. an expired deadline of a replaced entry) can't remove a newer entry
     @Override
-    public void delete(byte[] key, Version version)
+    public synchronized void delete(byte[] key, Version version)
     {
-        db.delete(key);
+        Entry old;
+        try {
+            old = get(key);
+        }
+        catch (UncheckedIOException e) {
+            // a corrupt entry is always removed
+            db.delete(key);
+            return;
+        }
+
+        if (old != null && EnumSet.of(AFTER, SAME).contains(version.compare(old.getVersion()))) {
+            db.delete(key);
+            listeners.fire(key, old, null);
+        }
     }
 
     @Override
@@ -85,20 +117,102 @@ public class PersistentStore
             @Override
             public Entry apply(Map.Entry<byte[], byte[]> dbEntry)
             {
-                try {
-                    return mapper.readValue(dbEntry.getValue(), Entry.class);
-                }
-                catch (IOException e) {
-                    byte[] key = dbEntry.getKey();
-                    log.error(e, "Corrupt entry " + Arrays.toString(key));
+                // null if filtered below
+                return decode(dbEntry);
+            }
+        }), notNull());
+    }
+
+    /**
+     * The iterator reads a LevelDB snapshot taken when this method is called.
+     */
+    @Override
+    public EntryIterator scan(@Nullable byte[] afterKey)
+    {
+        Snapshot snapshot = db.getSnapshot();
+        DBIterator iterator = db.iterator(new ReadOptions().snapshot(snapshot));
+        if (afterKey == null) {
+            iterator.seekToFirst();
+        }
+        else {
+            iterator.seek(afterKey);
+            if (iterator.hasNext() && Arrays.equals(iterator.peekNext().getKey(), afterKey)) {
+                iterator.next();
+            }
+        }
+
+        return new SnapshotEntryIterator(snapshot, iterator);
+    }
+
+    private Entry decode(Map.Entry<byte[], byte[]> dbEntry)
+    {
+        try {
+            return mapper.readValue(dbEntry.getValue(), Entry.class);
+        }
+        catch (IOException e) {
+            byte[] key = dbEntry.getKey();
+            log.error(e, "Corrupt entry " + Arrays.toString(key));
+
+            // delete the corrupt entry... if another node has a non-corrupt version it will be replicated
+            db.delete(key);
+            return null;
+        }
+    }
 
-                    // delete the corrupt entry... if another node has a non-corrupt version it will be replicated
-                    db.delete(key);
+    private Entry getForListeners(byte[] key)
+    {
+        if (listeners.isEmpty()) {
+            return null;
+        }
+        try {
+            return get(key);
+        }
+        catch (UncheckedIOException e) {
+            // a corrupt entry is reported as absent
+            return null;
+        }
+    }
+
+    @Override
+    public void addListener(StoreListener listener)
+    {
+        listeners.add(listener);
+    }
 
-                    // null if filtered below
-                    return null;
+    private class SnapshotEntryIterator
+            extends AbstractIterator<Entry>
+            implements EntryIterator
+    {
+        private final Snapshot snapshot;
+        private final DBIterator iterator;
+
+        private SnapshotEntryIterator(Snapshot snapshot, DBIterator iterator)
+        {
+            this.snapshot = snapshot;
+            this.iterator = iterator;
+        }
+
+        @Override
+        protected Entry computeNext()
+        {
+            while (iterator.hasNext()) {
+                Entry entry = decode(iterator.next());
+                if (entry != null) {
+                    return entry;
                 }
             }
-        }), notNull());
+            return endOfData();
+        }
+
+        @Override
+        public void close()
+        {
+            try (Snapshot ignored = snapshot) {
+                iterator.close();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 }
@@ -70,6 +70,7 @@ public class ReplicatedStoreModule
 
         // global
         jaxrsBinder(binder).bind(StoreResource.class);
+        jaxrsBinder(binder).bind(ReplicationEncodingFilter.class);
         binder.bind(new TypeLiteral<Supplier<DateTime>>() {}).to(RealTimeSupplier.class).in(Scopes.SINGLETON);
         binder.bind(ConflictResolver.class).in(Scopes.SINGLETON);
 
@@ -78,28 +79,45 @@ public class ReplicatedStoreModule
         Key<LocalStore> localStoreKey = Key.get(LocalStore.class, annotation);
         Key<StoreConfig> storeConfigKey = Key.get(StoreConfig.class, annotation);
         Key<RemoteStore> remoteStoreKey = Key.get(RemoteStore.class, annotation);
+        Key<MerkleTree> merkleTreeKey = Key.get(MerkleTree.class, annotation);
+        Key<ChangeLog> changeLogKey = Key.get(ChangeLog.class, annotation);
+        Key<CompressionStats> compressionStatsKey = Key.get(CompressionStats.class, annotation);
 
         configBinder(binder).bindConfig(StoreConfig.class, annotation, name);
         httpClientBinder(binder).bindHttpClient(name, annotation);
 
         binder.bind(DistributedStore.class).annotatedWith(annotation).toProvider(new DistributedStoreProvider(name, localStoreKey, storeConfigKey, remoteStoreKey)).in(Scopes.SINGLETON);
-        binder.bind(Replicator.class).annotatedWith(annotation).toProvider(new ReplicatorProvider(name, localStoreKey, httpClientKey, storeConfigKey)).in(Scopes.SINGLETON);
-        binder.bind(HttpRemoteStore.class).annotatedWith(annotation).toProvider(new RemoteHttpStoreProvider(name, httpClientKey, storeConfigKey)).in(Scopes.SINGLETON);
+        binder.bind(Replicator.class).annotatedWith(annotation).toProvider(new ReplicatorProvider(name, localStoreKey, merkleTreeKey, httpClientKey, storeConfigKey, compressionStatsKey)).in(Scopes.SINGLETON);
         binder.bind(LocalStore.class).annotatedWith(annotation).to(localStoreClass).in(Scopes.SINGLETON);
+        binder.bind(MerkleTree.class).annotatedWith(annotation).toProvider(new MerkleTreeProvider(localStoreKey)).in(Scopes.SINGLETON);
+        binder.bind(ChangeLog.class).annotatedWith(annotation).toProvider(new ChangeLogProvider(localStoreKey, storeConfigKey)).in(Scopes.SINGLETON);
+        binder.bind(CompressionStats.class).annotatedWith(annotation).to(CompressionStats.class).in(Scopes.SINGLETON);
 
-        binder.bind(RemoteStore.class).annotatedWith(annotation).to(Key.get(HttpRemoteStore.class, annotation));
+        binder.bind(RemoteStore.class).annotatedWith(annotation).toProvider(new RemoteStoreProvider(name, httpClientKey, localStoreKey, storeConfigKey, compressionStatsKey)).in(Scopes.SINGLETON);
 
         newExporter(binder).export(DistributedStore.class).annotatedWith(annotation).as(generatedNameOf(DistributedStore.class, named(name)));
-        newExporter(binder).export(HttpRemoteStore.class).annotatedWith(annotation).as(generatedNameOf(HttpRemoteStore.class, named(name)));
         newExporter(binder).export(Replicator.class).annotatedWith(annotation).as(generatedNameOf(Replicator.class, named(name)));
+        newExporter(binder).export(CompressionStats.class).annotatedWith(annotation).as(generatedNameOf(CompressionStats.class, named(name)));
 
         newMapBinder(binder, String.class, LocalStore.class)
                 .addBinding(name)
                 .to(localStoreKey);
 
+        newMapBinder(binder, String.class, MerkleTree.class)
+                .addBinding(name)
+                .to(merkleTreeKey);
+
+        newMapBinder(binder, String.class, ChangeLog.class)
+                .addBinding(name)
+                .to(changeLogKey);
+
         newMapBinder(binder, String.class, StoreConfig.class)
                 .addBinding(name)
                 .to(storeConfigKey);
+
+        newMapBinder(binder, String.class, CompressionStats.class)
+                .addBinding(name)
+                .to(compressionStatsKey);
     }
 
     @ThreadSafe
@@ -108,8 +126,10 @@ public class ReplicatedStoreModule
     {
         private final String name;
         private final Key<? extends LocalStore> localStoreKey;
+        private final Key<MerkleTree> merkleTreeKey;
         private final Key<? extends HttpClient> httpClientKey;
         private final Key<StoreConfig> storeConfigKey;
+        private final Key<CompressionStats> compressionStatsKey;
 
         @GuardedBy("this")
         private Injector injector;
@@ -123,12 +143,20 @@ public class ReplicatedStoreModule
         @GuardedBy("this")
         private Replicator replicator;
 
-        private ReplicatorProvider(String name, Key<? extends LocalStore> localStoreKey, Key<? extends HttpClient> httpClientKey, Key<StoreConfig> storeConfigKey)
+        private ReplicatorProvider(
+                String name,
+                Key<? extends LocalStore> localStoreKey,
+                Key<MerkleTree> merkleTreeKey,
+                Key<? extends HttpClient> httpClientKey,
+                Key<StoreConfig> storeConfigKey,
+                Key<CompressionStats> compressionStatsKey)
         {
             this.name = name;
             this.localStoreKey = localStoreKey;
+            this.merkleTreeKey = merkleTreeKey;
             this.httpClientKey = httpClientKey;
             this.storeConfigKey = storeConfigKey;
+            this.compressionStatsKey = compressionStatsKey;
         }
 
         @Override
@@ -136,10 +164,12 @@ public class ReplicatedStoreModule
         {
             if (replicator == null) {
                 LocalStore localStore = injector.getInstance(localStoreKey);
+                MerkleTree merkleTree = injector.getInstance(merkleTreeKey);
                 HttpClient httpClient = injector.getInstance(httpClientKey);
                 StoreConfig storeConfig = injector.getInstance(storeConfigKey);
+                CompressionStats compressionStats = injector.getInstance(compressionStatsKey);
 
-                replicator = new Replicator(name, nodeInfo, serviceSelector, httpClient, localStore, storeConfig);
+                replicator = new Replicator(name, nodeInfo, serviceSelector, httpClient, localStore, merkleTree, storeConfig, compressionStats);
                 replicator.start();
             }
 
@@ -174,11 +204,94 @@ public class ReplicatedStoreModule
     }
 
     @ThreadSafe
-    private static class RemoteHttpStoreProvider
-            implements Provider<HttpRemoteStore>
+    private static class MerkleTreeProvider
+            implements Provider<MerkleTree>
+    {
+        private final Key<? extends LocalStore> localStoreKey;
+
+        @GuardedBy("this")
+        private Injector injector;
+
+        @GuardedBy("this")
+        private MerkleTree merkleTree;
+
+        private MerkleTreeProvider(Key<? extends LocalStore> localStoreKey)
+        {
+            this.localStoreKey = localStoreKey;
+        }
+
+        @Override
+        public synchronized MerkleTree get()
+        {
+            if (merkleTree == null) {
+                LocalStore localStore = injector.getInstance(localStoreKey);
+
+                // register first so no change is missed; the tree ignores snapshot entries older than a change it already saw
+                merkleTree = new MerkleTree();
+                localStore.addListener(merkleTree);
+                merkleTree.addAll(localStore.getAll());
+            }
+
+            return merkleTree;
+        }
+
+        @Inject
+        public synchronized void setInjector(Injector injector)
+        {
+            this.injector = injector;
+        }
+    }
+
+    @ThreadSafe
+    private static class ChangeLogProvider
+            implements Provider<ChangeLog>
+    {
+        private final Key<? extends LocalStore> localStoreKey;
+        private final Key<StoreConfig> storeConfigKey;
+
+        @GuardedBy("this")
+        private Injector injector;
+
+        @GuardedBy("this")
+        private ChangeLog changeLog;
+
+        private ChangeLogProvider(Key<? extends LocalStore> localStoreKey, Key<StoreConfig> storeConfigKey)
+        {
+            this.localStoreKey = localStoreKey;
+            this.storeConfigKey = storeConfigKey;
+        }
+
+        @Override
+        public synchronized ChangeLog get()
+        {
+            if (changeLog == null) {
+                LocalStore localStore = injector.getInstance(localStoreKey);
+                StoreConfig storeConfig = injector.getInstance(storeConfigKey);
+
+                // readers of a new log always start with a full synchronization, so existing entries are not logged
+                changeLog = new ChangeLog(storeConfig.getChangeLogSize());
+                localStore.addListener(changeLog);
+            }
+
+            return changeLog;
+        }
+
+        @Inject
+        public synchronized void setInjector(Injector injector)
+        {
+            this.injector = injector;
+        }
+    }
+
+    @ThreadSafe
+    private static class RemoteStoreProvider
+            implements Provider<RemoteStore>
     {
         @GuardedBy("this")
-        private HttpRemoteStore remoteStore;
+        private RemoteStore remoteStore;
+
+        @GuardedBy("this")
+        private String objectName;
 
         @GuardedBy("this")
         private Injector injector;
@@ -194,25 +307,48 @@ public class ReplicatedStoreModule
 
         private final String name;
         private final Key<? extends HttpClient> httpClientKey;
+        private final Key<? extends LocalStore> localStoreKey;
         private final Key<StoreConfig> storeConfigKey;
+        private final Key<CompressionStats> compressionStatsKey;
 
-        @Inject
-        private RemoteHttpStoreProvider(String name, Key<? extends HttpClient> httpClientKey, Key<StoreConfig> storeConfigKey)
+        private RemoteStoreProvider(
+                String name,
+                Key<? extends HttpClient> httpClientKey,
+                Key<? extends LocalStore> localStoreKey,
+                Key<StoreConfig> storeConfigKey,
+                Key<CompressionStats> compressionStatsKey)
         {
             this.name = name;
             this.httpClientKey = httpClientKey;
+            this.localStoreKey = localStoreKey;
             this.storeConfigKey = storeConfigKey;
+            this.compressionStatsKey = compressionStatsKey;
         }
 
         @Override
-        public synchronized HttpRemoteStore get()
+        public synchronized RemoteStore get()
         {
             if (remoteStore == null) {
                 HttpClient httpClient = injector.getInstance(httpClientKey);
                 StoreConfig storeConfig = injector.getInstance(storeConfigKey);
-
-                remoteStore = new HttpRemoteStore(name, nodeInfo, serviceSelector, storeConfig, httpClient, mbeanExporter);
-                remoteStore.start();
+                CompressionStats compressionStats = injector.getInstance(compressionStatsKey);
+                ConflictResolver conflictResolver = injector.getInstance(ConflictResolver.class);
+
+                // only the configured replication mode is created, so the other never runs or shows up in JMX
+                if (storeConfig.isGossipEnabled()) {
+                    LocalStore localStore = injector.getInstance(localStoreKey);
+                    GossipRemoteStore gossipRemoteStore = new GossipRemoteStore(name, nodeInfo, serviceSelector, storeConfig, httpClient, localStore, conflictResolver, compressionStats, mbeanExporter);
+                    gossipRemoteStore.start();
+                    objectName = generatedNameOf(GossipRemoteStore.class, named(name));
+                    remoteStore = gossipRemoteStore;
+                }
+                else {
+                    HttpRemoteStore httpRemoteStore = new HttpRemoteStore(name, nodeInfo, serviceSelector, storeConfig, httpClient, conflictResolver, compressionStats, mbeanExporter);
+                    httpRemoteStore.start();
+                    objectName = generatedNameOf(HttpRemoteStore.class, named(name));
+                    remoteStore = httpRemoteStore;
+                }
+                mbeanExporter.export(objectName, remoteStore);
             }
 
             return remoteStore;
@@ -221,8 +357,15 @@ public class ReplicatedStoreModule
         @PreDestroy
         public synchronized void shutdown()
         {
-            if (remoteStore != null) {
-                remoteStore.shutdown();
+            if (remoteStore == null) {
+                return;
+            }
+            mbeanExporter.unexport(objectName);
+            if (remoteStore instanceof GossipRemoteStore gossipRemoteStore) {
+                gossipRemoteStore.shutdown();
+            }
+            else {
+                ((HttpRemoteStore) remoteStore).shutdown();
             }
         }
 
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import io.airlift.compress.zstd.ZstdOutputStream;
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content encodings of replication requests and responses. The encoding names are the
+ * HTTP {@code Content-Encoding} tokens.
+ */
+public enum ReplicationCodec
+{
+    NONE("identity")
+    {
+        @Override
+        OutputStream compress(OutputStream output, int level)
+        {
+            return output;
+        }
+
+        @Override
+        InputStream decompress(InputStream input)
+        {
+            return input;
+        }
+    },
+    GZIP("gzip")
+    {
+        @Override
+        OutputStream compress(OutputStream output, int level)
+                throws IOException
+        {
+            return new GZIPOutputStream(output, BUFFER_SIZE)
+            {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+
+        @Override
+        InputStream decompress(InputStream input)
+                throws IOException
+        {
+            return new GZIPInputStream(input, BUFFER_SIZE);
+        }
+    },
+    // much cheaper than gzip for a similar ratio; the level only applies to gzip
+    ZSTD("zstd")
+    {
+        @Override
+        OutputStream compress(OutputStream output, int level)
+                throws IOException
+        {
+            return new ZstdOutputStream(output);
+        }
+
+        @Override
+        InputStream decompress(InputStream input)
+                throws IOException
+        {
+            return new ZstdInputStream(input);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String encoding;
+
+    ReplicationCodec(String encoding)
+    {
+        this.encoding = encoding;
+    }
+
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    abstract OutputStream compress(OutputStream output, int level)
+            throws IOException;
+
+    abstract InputStream decompress(InputStream input)
+            throws IOException;
+
+    /**
+     * Returns the codec of a {@code Content-Encoding} header value, or empty if the
+     * encoding is not supported. A missing header means no encoding.
+     */
+    public static Optional<ReplicationCodec> fromEncoding(@Nullable String encoding)
+    {
+        if (encoding == null) {
+            return Optional.of(NONE);
+        }
+        String name = encoding.trim().toLowerCase(Locale.ENGLISH);
+        for (ReplicationCodec codec : values()) {
+            if (codec.encoding.equals(name)) {
+                return Optional.of(codec);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the first codec listed in an {@code Accept-Encoding} header value that is
+     * supported and not refused with a zero quality, or {@link #NONE}.
+     */
+    public static ReplicationCodec negotiate(@Nullable String acceptEncoding)
+    {
+        if (acceptEncoding == null) {
+            return NONE;
+        }
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            Optional<ReplicationCodec> codec = fromEncoding(parts[0]);
+            if (codec.isPresent() && codec.get() != NONE && !isRefused(parts)) {
+                return codec.get();
+            }
+        }
+        return NONE;
+    }
+
+    private static boolean isRefused(String[] parts)
+    {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) == 0;
+                }
+                catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Optional;
+
+import static jakarta.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static jakarta.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static jakarta.ws.rs.core.HttpHeaders.VARY;
+
+/**
+ * Decompresses store requests sent with a supported {@code Content-Encoding}, and
+ * compresses responses with the first supported codec of the {@code Accept-Encoding}
+ * of the request, at the compression level of the store.
+ */
+@ReplicationEncoded
+public class ReplicationEncodingFilter
+        implements ContainerRequestFilter, WriterInterceptor
+{
+    private static final String RESPONSE_ENCODING_PROPERTY = ReplicationEncodingFilter.class.getName() + ".responseEncoding";
+
+    private final Map<String, CompressionStats> compressionStats;
+    private final Map<String, StoreConfig> configs;
+
+    @Inject
+    public ReplicationEncodingFilter(Map<String, CompressionStats> compressionStats, Map<String, StoreConfig> configs)
+    {
+        this.compressionStats = ImmutableMap.copyOf(compressionStats);
+        this.configs = ImmutableMap.copyOf(configs);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request)
+            throws IOException
+    {
+        String storeName = request.getUriInfo().getPathParameters().getFirst("store");
+        CompressionStats stats = storeName == null ? null : compressionStats.get(storeName);
+        StoreConfig config = storeName == null ? null : configs.get(storeName);
+        if (stats == null || config == null) {
+            // the resource responds with not found
+            return;
+        }
+
+        Optional<ReplicationCodec> requestCodec = ReplicationCodec.fromEncoding(request.getHeaderString(CONTENT_ENCODING));
+        if (requestCodec.isEmpty()) {
+            request.abortWith(Response.status(Status.UNSUPPORTED_MEDIA_TYPE).build());
+            return;
+        }
+        if (requestCodec.get() != ReplicationCodec.NONE) {
+            request.setEntityStream(stats.decompress(requestCodec.get(), request.getEntityStream()));
+            request.getHeaders().remove(CONTENT_ENCODING);
+        }
+
+        ReplicationCodec responseCodec = ReplicationCodec.negotiate(request.getHeaderString(ACCEPT_ENCODING));
+        if (responseCodec != ReplicationCodec.NONE) {
+            request.setProperty(RESPONSE_ENCODING_PROPERTY, new ResponseEncoding(responseCodec, config.getCompressionLevel(), stats));
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context)
+            throws IOException
+    {
+        ResponseEncoding encoding = (ResponseEncoding) context.getProperty(RESPONSE_ENCODING_PROPERTY);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        context.getHeaders().putSingle(CONTENT_ENCODING, encoding.getCodec().getEncoding());
+        context.getHeaders().add(VARY, ACCEPT_ENCODING);
+
+        // the container closes the original stream, so the compressed stream is finished here
+        OutputStream compressed = encoding.getStats().compress(encoding.getCodec(), new UnclosableOutputStream(context.getOutputStream()), encoding.getLevel());
+        context.setOutputStream(compressed);
+        context.proceed();
+        compressed.close();
+    }
+
+    private static class ResponseEncoding
+    {
+        private final ReplicationCodec codec;
+        private final int level;
+        private final CompressionStats stats;
+
+        private ResponseEncoding(ReplicationCodec codec, int level, CompressionStats stats)
+        {
+            this.codec = codec;
+            this.level = level;
+            this.stats = stats;
+        }
+
+        public ReplicationCodec getCodec()
+        {
+            return codec;
+        }
+
+        public int getLevel()
+        {
+            return level;
+        }
+
+        public CompressionStats getStats()
+        {
+            return stats;
+        }
+    }
+
+    private static class UnclosableOutputStream
+            extends FilterOutputStream
+    {
+        private UnclosableOutputStream(OutputStream output)
+        {
+            super(output);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            flush();
+        }
+    }
+}
@@ -16,8 +16,13 @@
 package io.airlift.discovery.store;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.inject.Inject;
 import io.airlift.discovery.client.ServiceDescriptor;
 import io.airlift.discovery.client.ServiceSelector;
@@ -25,40 +30,94 @@ import io.airlift.http.client.HttpClient;
 import io.airlift.http.client.Request;
 import io.airlift.http.client.Response;
 import io.airlift.http.client.ResponseHandler;
+import io.airlift.json.JsonCodec;
+import io.airlift.json.JsonCodecFactory;
 import io.airlift.log.Logger;
 import io.airlift.node.NodeInfo;
+import io.airlift.stats.TimeStat;
 import io.airlift.units.Duration;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static com.google.common.util.concurrent.Futures.catching;
+import static com.google.common.util.concurrent.Futures.immediateVoidFuture;
+import static com.google.common.util.concurrent.Futures.transformAsync;
+import static com.google.common.util.concurrent.Futures.withTimeout;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 import static io.airlift.concurrent.Threads.daemonThreadsNamed;
-import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static io.airlift.http.client.JsonBodyGenerator.jsonBodyGenerator;
+import static io.airlift.http.client.StaticBodyGenerator.createStaticBodyGenerator;
+import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
 
 public class Replicator
 {
     private static final Logger log = Logger.get(Replicator.class);
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+    private static final JsonCodec<DigestRequest> DIGEST_CODEC = new JsonCodecFactory(() -> SMILE_MAPPER).jsonCodec(DigestRequest.class);
+    private static final JsonCodec<List<Entry>> ENTRIES_CODEC = new JsonCodecFactory(() -> SMILE_MAPPER).listJsonCodec(Entry.class);
+    private static final ObjectReader ENTRY_READER = SMILE_MAPPER.readerFor(Entry.class);
 
     private final String name;
     private final NodeInfo node;
     private final ServiceSelector selector;
     private final HttpClient httpClient;
     private final LocalStore localStore;
+    private final MerkleTree merkleTree;
     private final Duration replicationInterval;
+    private final int concurrency;
+    private final int pageSize;
+    private final Duration peerTimeout;
+    private final ReplicationCodec codec;
+    private final int compressionLevel;
+    private final CompressionStats compressionStats;
 
     private ScheduledFuture<?> future;
     private ScheduledExecutorService executor;
+    private ListeningExecutorService peerExecutor;
 
-    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory());
     private final AtomicLong lastReplicationTimestamp = new AtomicLong();
+    private final AtomicLong peersInSync = new AtomicLong();
+    private final AtomicLong bucketsFetched = new AtomicLong();
+    private final AtomicLong fullSyncs = new AtomicLong();
+    private final AtomicLong entriesPulled = new AtomicLong();
+    private final AtomicLong changesPulled = new AtomicLong();
+
+    // each peer is only synchronized by one thread at a time
+    private final Map<URI, LogPosition> logPositions = new ConcurrentHashMap<>();
+    private final AtomicLong entriesPushed = new AtomicLong();
+    private final AtomicLong peerFailures = new AtomicLong();
+    private final AtomicLong peerTimeouts = new AtomicLong();
+    private final TimeStat roundTime = new TimeStat(TimeUnit.MILLISECONDS);
+    private final TimeStat peerSyncTime = new TimeStat(TimeUnit.MILLISECONDS);
 
     @Inject
     public Replicator(String name,
@@ -66,22 +125,33 @@ public class Replicator
             ServiceSelector selector,
             HttpClient httpClient,
             LocalStore localStore,
-            StoreConfig config)
+            MerkleTree merkleTree,
+            StoreConfig config,
+            CompressionStats compressionStats)
     {
         this.name = name;
         this.node = node;
         this.selector = selector;
         this.httpClient = httpClient;
         this.localStore = localStore;
+        this.merkleTree = merkleTree;
 
         this.replicationInterval = config.getReplicationInterval();
+        this.concurrency = config.getReplicationConcurrency();
+        this.pageSize = config.getReplicationPageSize();
+        this.peerTimeout = config.getReplicationPeerTimeout();
+        this.codec = config.getCompression();
+        this.compressionLevel = config.getCompressionLevel();
+        this.compressionStats = compressionStats;
     }
 
     @PostConstruct
     public synchronized void start()
     {
         if (future == null) {
-            executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("replicator-" + name));
+            // one thread runs the replication rounds, the other enforces the peer timeouts
+            executor = newScheduledThreadPool(2, daemonThreadsNamed("replicator-" + name + "-%s"));
+            peerExecutor = listeningDecorator(newCachedThreadPool(daemonThreadsNamed("replicator-" + name + "-peer-%s")));
 
             future = executor.scheduleAtFixedRate(new Runnable()
             {
@@ -91,6 +161,9 @@ public class Replicator
                     try {
                         synchronize();
                     }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
                     catch (Throwable t) {
                         log.warn(t, "Error replicating state");
                     }
@@ -107,8 +180,10 @@ public class Replicator
         if (future != null) {
             future.cancel(true);
             executor.shutdownNow();
+            peerExecutor.shutdownNow();
 
             executor = null;
+            peerExecutor = null;
             future = null;
         }
     }
@@ -119,8 +194,78 @@ public class Replicator
         return lastReplicationTimestamp.get();
     }
 
+    @Managed
+    public long getPeersInSync()
+    {
+        return peersInSync.get();
+    }
+
+    @Managed
+    public long getBucketsFetched()
+    {
+        return bucketsFetched.get();
+    }
+
+    @Managed
+    public long getFullSyncs()
+    {
+        return fullSyncs.get();
+    }
+
+    @Managed
+    public long getEntriesPulled()
+    {
+        return entriesPulled.get();
+    }
+
+    @Managed
+    public long getChangesPulled()
+    {
+        return changesPulled.get();
+    }
+
+    @Managed
+    public long getEntriesPushed()
+    {
+        return entriesPushed.get();
+    }
+
+    @Managed
+    public int getTrackedPeers()
+    {
+        return logPositions.size();
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getRoundTime()
+    {
+        return roundTime;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getPeerSyncTime()
+    {
+        return peerSyncTime;
+    }
+
+    @Managed
+    public long getPeerFailures()
+    {
+        return peerFailures.get();
+    }
+
+    @Managed
+    public long getPeerTimeouts()
+    {
+        return peerTimeouts.get();
+    }
+
     private void synchronize()
+            throws InterruptedException
     {
+        Queue<URI> peers = new ConcurrentLinkedQueue<>();
         for (ServiceDescriptor descriptor : selector.selectAllServices()) {
             if (descriptor.getNodeId().equals(node.getNodeId())) {
                 // don't write to ourselves
@@ -134,50 +279,353 @@ public class Replicator
             }
 
             // TODO: build URI from resource class
-            Request request = Request.Builder.prepareGet()
-                    .setUri(URI.create(uri + "/v1/store/" + name))
-                    .build();
+            peers.add(URI.create(uri + "/v1/store/" + name));
+        }
 
+        // forget the log positions of peers that have left
+        logPositions.keySet().retainAll(ImmutableSet.copyOf(peers));
+
+        // each lane synchronizes one peer at a time, so the per-peer timeout starts when the peer does
+        try (TimeStat.BlockTimer ignored = roundTime.time()) {
+            List<ListenableFuture<Void>> lanes = new ArrayList<>();
+            for (int i = 0; i < Math.min(concurrency, peers.size()); i++) {
+                lanes.add(synchronizeNext(peers));
+            }
+            ListenableFuture<List<Void>> round = allAsList(lanes);
             try {
-                httpClient.execute(request, new ResponseHandler<Void, Exception>()
-                {
-                    @Override
-                    public Void handleException(Request request, Exception exception)
-                            throws Exception
-                    {
-                        throw exception;
-                    }
+                round.get();
+            }
+            catch (InterruptedException e) {
+                round.cancel(true);
+                throw e;
+            }
+            catch (ExecutionException e) {
+                // lanes do not fail
+                throw new RuntimeException(e.getCause());
+            }
+        }
 
-                    @Override
-                    public Void handle(Request request, Response response)
-                            throws Exception
-                    {
-                        // TODO: read server date (to use to calibrate entry dates)
-
-                        if (response.getStatusCode() == 200) {
-                            try {
-                                List<Entry> entries = mapper.readValue(response.getInputStream(), new TypeReference<List<Entry>>() {});
-                                for (Entry entry : entries) {
-                                    localStore.put(entry);
-                                }
-                            }
-                            catch (EOFException e) {
-                                // ignore
-                            }
+        lastReplicationTimestamp.set(System.currentTimeMillis());
+    }
+
+    private ListenableFuture<Void> synchronizeNext(Queue<URI> peers)
+    {
+        URI storeUri = peers.poll();
+        if (storeUri == null) {
+            return immediateVoidFuture();
+        }
+
+        long start = System.nanoTime();
+        ListenableFuture<Void> future = peerExecutor.submit(() -> {
+            pullChanges(storeUri);
+            return null;
+        });
+        future = withTimeout(future, peerTimeout.toMillis(), TimeUnit.MILLISECONDS, executor);
+        future = catching(future, Throwable.class, throwable -> {
+            if (throwable instanceof TimeoutException) {
+                peerTimeouts.incrementAndGet();
+                log.debug("Timed out synchronizing with %s", storeUri);
+            }
+            else {
+                peerFailures.incrementAndGet();
+                log.debug(throwable, "Error synchronizing with %s", storeUri);
+            }
+            return null;
+        }, directExecutor());
+        return transformAsync(future, ignored -> {
+            peerSyncTime.add(Duration.nanosSince(start));
+            return synchronizeNext(peers);
+        }, directExecutor());
+    }
+
+    /**
+     * Pulls the changes since the last position read from the change log of the peer.
+     * If the peer has no log, or the position is no longer in it, does a full
+     * synchronization and continues from the position the peer returned.
+     */
+    private void pullChanges(URI storeUri)
+            throws Exception
+    {
+        LogPosition position = logPositions.get(storeUri);
+        URI changesUri;
+        if (position == null) {
+            changesUri = URI.create(storeUri + "/changes");
+        }
+        else {
+            changesUri = URI.create(storeUri + "/changes?log=" + position.getLogId() + "&since=" + position.getSequence());
+        }
+
+        StoreChanges changes = fetch(Request.Builder.prepareGet()
+                .setUri(changesUri)
+                .build(), new TypeReference<StoreChanges>() {});
+        if (changes == null) {
+            synchronize(storeUri);
+            return;
+        }
+
+        if (changes.isComplete()) {
+            for (Entry entry : changes.getEntries()) {
+                localStore.put(entry);
+            }
+            changesPulled.addAndGet(changes.getEntries().size());
+        }
+        else {
+            synchronize(storeUri);
+        }
+        logPositions.put(storeUri, new LogPosition(changes.getLogId(), changes.getSequence()));
+    }
+
+    /**
+     * Compares the Merkle tree root with the peer, and if it differs, exchanges
+     * digests of the buckets whose hashes differ.
+     */
+    private void synchronize(URI storeUri)
+            throws Exception
+    {
+        long[] remoteRoot = fetch(Request.Builder.prepareGet()
+                .setUri(URI.create(storeUri + "/merkle?level=0"))
+                .build(), new TypeReference<long[]>() {});
+        if (remoteRoot == null) {
+            // peer does not support Merkle trees
+            fullSyncs.incrementAndGet();
+            replicateAll(storeUri);
+            return;
+        }
+        if (remoteRoot[0] == merkleTree.getRootHash()) {
+            peersInSync.incrementAndGet();
+            return;
+        }
+
+        long[] remoteLeaves = fetch(Request.Builder.prepareGet()
+                .setUri(URI.create(storeUri + "/merkle?level=" + MerkleTree.DEPTH))
+                .build(), new TypeReference<long[]>() {});
+        long[] localLeaves = merkleTree.getLevel(MerkleTree.DEPTH);
+        if (remoteLeaves == null || remoteLeaves.length != localLeaves.length) {
+            throw new IOException("Invalid Merkle tree from " + storeUri);
+        }
+
+        List<Integer> buckets = new ArrayList<>();
+        for (int bucket = 0; bucket < localLeaves.length; bucket++) {
+            if (localLeaves[bucket] != remoteLeaves[bucket]) {
+                buckets.add(bucket);
+            }
+        }
+        if (buckets.isEmpty()) {
+            return;
+        }
+
+        exchangeDigest(storeUri, buckets);
+    }
+
+    /**
+     * Sends the (key, version) digest of the specified buckets, applies the entries
+     * the peer returns, and pushes back the entries the peer wants.
+     */
+    private void exchangeDigest(URI storeUri, List<Integer> buckets)
+            throws Exception
+    {
+        Map<Long, Entry> localEntries = new HashMap<>();
+        for (int bucket : buckets) {
+            for (byte[] key : merkleTree.getKeys(bucket)) {
+                Entry entry = localStore.get(key);
+                if (entry != null) {
+                    localEntries.put(DigestRequest.hashKey(key), entry);
+                }
+            }
+        }
+
+        long[] keyHashes = new long[localEntries.size()];
+        long[] sequences = new long[localEntries.size()];
+        int index = 0;
+        for (Map.Entry<Long, Entry> entry : localEntries.entrySet()) {
+            keyHashes[index] = entry.getKey();
+            sequences[index] = entry.getValue().getVersion().getSequence();
+            index++;
+        }
+
+        DigestResponse response = fetch(Request.Builder.preparePost()
+                .setUri(URI.create(storeUri + "/digest"))
+                .setHeader("Content-Type", "application/x-jackson-smile")
+                .setBodyGenerator(jsonBodyGenerator(DIGEST_CODEC, new DigestRequest(buckets, keyHashes, sequences)))
+                .build(), new TypeReference<DigestResponse>() {});
+        if (response == null) {
+            return;
+        }
+
+        bucketsFetched.addAndGet(buckets.size());
+        for (Entry entry : response.getEntries()) {
+            localStore.put(entry);
+        }
+        entriesPulled.addAndGet(response.getEntries().size());
+
+        List<Entry> wanted = new ArrayList<>();
+        for (long keyHash : response.getWantedKeyHashes()) {
+            Entry entry = localEntries.get(keyHash);
+            if (entry != null) {
+                wanted.add(entry);
+            }
+        }
+        if (!wanted.isEmpty()) {
+            Request.Builder request = Request.Builder.preparePost()
+                    .setUri(storeUri)
+                    .setHeader("Content-Type", "application/x-jackson-smile");
+            if (codec == ReplicationCodec.NONE) {
+                request.setBodyGenerator(jsonBodyGenerator(ENTRIES_CODEC, wanted));
+            }
+            else {
+                request.setHeader("Content-Encoding", codec.getEncoding())
+                        .setBodyGenerator(createStaticBodyGenerator(compressionStats.compress(codec, ENTRIES_CODEC.toJsonBytes(wanted), compressionLevel)));
+            }
+            httpClient.execute(request.build(), createStatusResponseHandler());
+            entriesPushed.addAndGet(wanted.size());
+        }
+    }
+
+    /**
+     * Fetches all entries of the peer in pages of keys. Peers that do not support
+     * paging return all entries for every page request, which is detected because
+     * a page then includes the key it was requested after.
+     */
+    private void replicateAll(URI storeUri)
+            throws Exception
+    {
+        byte[] afterKey = null;
+        while (true) {
+            String query = "?limit=" + pageSize;
+            if (afterKey != null) {
+                query += "&after=" + Base64.getUrlEncoder().withoutPadding().encodeToString(afterKey);
+            }
+
+            byte[] pageAfterKey = afterKey;
+            AtomicReference<byte[]> lastKey = new AtomicReference<>();
+            AtomicBoolean unpaged = new AtomicBoolean();
+            // apply the entries as they are decoded
+            Long entries = fetch(Request.Builder.prepareGet()
+                    .setUri(URI.create(storeUri + query))
+                    .setHeader("Accept", "application/x-jackson-smile")
+                    .build(), input -> readEntries(input, entry -> {
+                        localStore.put(entry);
+                        lastKey.set(entry.getKey());
+                        if (pageAfterKey != null && Arrays.equals(entry.getKey(), pageAfterKey)) {
+                            unpaged.set(true);
                         }
+                    }));
+            if (entries == null) {
+                return;
+            }
+            entriesPulled.addAndGet(entries);
 
-                        return null;
-                    }
-                });
+            if (entries != pageSize || unpaged.get()) {
+                return;
             }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            afterKey = lastKey.get();
+        }
+    }
+
+    /**
+     * Decodes a Smile array of entries one entry at a time, and passes each entry to
+     * the consumer before decoding the next one. Returns the number of entries read.
+     */
+    static long readEntries(InputStream input, Consumer<Entry> consumer)
+            throws IOException
+    {
+        long count = 0;
+        try (MappingIterator<Entry> entries = ENTRY_READER.readValues(input)) {
+            while (entries.hasNextValue()) {
+                consumer.accept(entries.nextValue());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns null if the peer does not support the request.
+     */
+    private <T> T fetch(Request request, TypeReference<T> type)
+            throws Exception
+    {
+        return fetch(request, input -> {
+            try {
+                return SMILE_MAPPER.readValue(input, type);
             }
-            catch (Exception e) {
-                // ignore
+            catch (EOFException e) {
+                return null;
             }
+        });
+    }
+
+    /**
+     * Returns null if the peer does not support the request.
+     */
+    private <T> T fetch(Request request, BodyReader<T> reader)
+            throws Exception
+    {
+        if (codec != ReplicationCodec.NONE) {
+            // peers that do not support the codec respond uncompressed
+            request = Request.Builder.fromRequest(request)
+                    .setHeader("Accept-Encoding", codec.getEncoding())
+                    .build();
         }
 
-        lastReplicationTimestamp.set(System.currentTimeMillis());
+        return httpClient.execute(request, new ResponseHandler<T, Exception>()
+        {
+            @Override
+            public T handleException(Request request, Exception exception)
+                    throws Exception
+            {
+                throw exception;
+            }
+
+            @Override
+            public T handle(Request request, Response response)
+                    throws Exception
+            {
+                // TODO: read server date (to use to calibrate entry dates)
+
+                // peers without the resource respond 404, or 405 when the path matches PUT /{key}
+                if (response.getStatusCode() >= 400 && response.getStatusCode() < 500) {
+                    return null;
+                }
+                if (response.getStatusCode() != 200) {
+                    throw new IOException("Unexpected response status " + response.getStatusCode() + " from " + request.getUri());
+                }
+
+                String encoding = response.getHeader("Content-Encoding");
+                ReplicationCodec responseCodec = ReplicationCodec.fromEncoding(encoding)
+                        .orElseThrow(() -> new IOException("Unsupported content encoding " + encoding + " from " + request.getUri()));
+                try (InputStream input = compressionStats.decompress(responseCodec, response.getInputStream())) {
+                    return reader.read(input);
+                }
+            }
+        });
+    }
+
+    private interface BodyReader<T>
+    {
+        T read(InputStream input)
+                throws IOException;
+    }
+
+    private static class LogPosition
+    {
+        private final String logId;
+        private final long sequence;
+
+        private LogPosition(String logId, long sequence)
+        {
+            this.logId = logId;
+            this.sequence = sequence;
+        }
+
+        public String getLogId()
+        {
+            return logId;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.errorprone.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded lock-free FIFO queue (Dmitry Vyukov's bounded MPMC queue). Every slot has
+ * a sequence number that tells producers and consumers whether the slot is free for
+ * the current lap, so each offer or poll is a single CAS on the tail or the head.
+ * <p>
+ * Polls from multiple threads are supported, which lets producers remove the oldest
+ * element when the queue is full.
+ */
+@ThreadSafe
+final class RingBuffer<T>
+{
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    public RingBuffer(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be greater than 0");
+        checkArgument(capacity <= 1 << 30, "capacity is too large");
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    public int capacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Returns false if the queue is full.
+     */
+    public boolean offer(T element)
+    {
+        checkNotNull(element, "element is null");
+
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    // publish the element to consumers
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            }
+            else if (difference < 0) {
+                // the slot still holds the element of the previous lap
+                return false;
+            }
+            position = tail.get();
+        }
+    }
+
+    /**
+     * Returns null if the queue is empty.
+     */
+    public T poll()
+    {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T element = elements.get(index);
+                    elements.set(index, null);
+                    // free the slot for the next lap
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+            }
+            else if (difference < 0) {
+                // the slot has not been published yet
+                return null;
+            }
+            position = head.get();
+        }
+    }
+
+    /**
+     * Returns the approximate number of elements in the queue.
+     */
+    public int size()
+    {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import jakarta.annotation.Nullable;
+
+import com.google.errorprone.annotations.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A change of a single key of a store, after conflict resolution. The old entry is
+ * null if the key was absent, and the new entry is null if the key was removed.
+ * Tombstones are entries with a null value, so a delete through the
+ * {@link DistributedStore} shows up as a new entry without value.
+ */
+@Immutable
+public class StoreChange
+{
+    private final byte[] key;
+    private final Entry oldEntry;
+    private final Entry newEntry;
+
+    public StoreChange(byte[] key, @Nullable Entry oldEntry, @Nullable Entry newEntry)
+    {
+        this.key = checkNotNull(key, "key is null");
+        checkArgument(oldEntry != null || newEntry != null, "oldEntry and newEntry are null");
+        this.oldEntry = oldEntry;
+        this.newEntry = newEntry;
+    }
+
+    public byte[] getKey()
+    {
+        return key;
+    }
+
+    @Nullable
+    public Entry getOldEntry()
+    {
+        return oldEntry;
+    }
+
+    @Nullable
+    public Entry getNewEntry()
+    {
+        return newEntry;
+    }
+}
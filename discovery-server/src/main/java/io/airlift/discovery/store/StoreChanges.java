@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import com.google.errorprone.annotations.Immutable;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The current entries of the keys changed in a store since a position of its change
+ * log. If {@code complete} is false, the position was not in the log, no entries are
+ * included, and the reader must do a full synchronization. In either case, the
+ * returned log id and sequence are the position to read from next.
+ */
+@Immutable
+public class StoreChanges
+{
+    private final String logId;
+    private final long sequence;
+    private final boolean complete;
+    private final List<Entry> entries;
+
+    @JsonCreator
+    public StoreChanges(
+            @JsonProperty("logId") String logId,
+            @JsonProperty("sequence") long sequence,
+            @JsonProperty("complete") boolean complete,
+            @JsonProperty("entries") List<Entry> entries)
+    {
+        this.logId = checkNotNull(logId, "logId is null");
+        this.sequence = sequence;
+        this.complete = complete;
+        this.entries = ImmutableList.copyOf(checkNotNull(entries, "entries is null"));
+    }
+
+    @JsonProperty
+    public String getLogId()
+    {
+        return logId;
+    }
+
+    @JsonProperty
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    @JsonProperty
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    @JsonProperty
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+}
@@ -16,14 +16,19 @@
 package io.airlift.discovery.store;
 
 import io.airlift.configuration.Config;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
+import io.airlift.units.MinDataSize;
 import io.airlift.units.MinDuration;
 
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
 import java.util.concurrent.TimeUnit;
 
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+
 public class StoreConfig
 {
     private Duration tombstoneMaxAge = new Duration(1, TimeUnit.DAYS);
@@ -32,6 +37,25 @@ public class StoreConfig
     private int queueSize = 1000;
     private Duration remoteUpdateInterval = new Duration(5, TimeUnit.SECONDS);
     private Duration replicationInterval = new Duration(1, TimeUnit.MINUTES);
+    private int changeLogSize = 10_000;
+    private int replicationConcurrency = 8;
+    private Duration replicationPeerTimeout = new Duration(30, TimeUnit.SECONDS);
+    private int replicationPageSize = 1000;
+    private Duration batchLinger = new Duration(5, TimeUnit.MILLISECONDS);
+    private DataSize targetBatchBytes = DataSize.of(1, MEGABYTE);
+    private Duration batchLatencyTarget = new Duration(500, TimeUnit.MILLISECONDS);
+    private int senderThreads = 4;
+    private int maxInFlightBatches = 4;
+    private Duration retryMinBackoff = new Duration(100, TimeUnit.MILLISECONDS);
+    private Duration retryMaxBackoff = new Duration(10, TimeUnit.SECONDS);
+    private int breakerFailureThreshold = 5;
+    private Duration breakerOpenTime = new Duration(30, TimeUnit.SECONDS);
+    private ReplicationCodec compression = ReplicationCodec.NONE;
+    private int compressionLevel = 6;
+    private boolean gossipEnabled;
+    private int gossipFanout = 3;
+    private int gossipRumorRounds = 4;
+    private Duration gossipInterval = new Duration(200, TimeUnit.MILLISECONDS);
 
     @NotNull
     public Duration getTombstoneMaxAge()
@@ -111,4 +135,256 @@ public class StoreConfig
         this.replicationInterval = replicationInterval;
         return this;
     }
+
+    @Min(1)
+    public int getChangeLogSize()
+    {
+        return changeLogSize;
+    }
+
+    @Config("store.change-log-size")
+    public StoreConfig setChangeLogSize(int changeLogSize)
+    {
+        this.changeLogSize = changeLogSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getReplicationConcurrency()
+    {
+        return replicationConcurrency;
+    }
+
+    @Config("store.remote.replication-concurrency")
+    public StoreConfig setReplicationConcurrency(int replicationConcurrency)
+    {
+        this.replicationConcurrency = replicationConcurrency;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getReplicationPeerTimeout()
+    {
+        return replicationPeerTimeout;
+    }
+
+    @Config("store.remote.replication-peer-timeout")
+    public StoreConfig setReplicationPeerTimeout(Duration replicationPeerTimeout)
+    {
+        this.replicationPeerTimeout = replicationPeerTimeout;
+        return this;
+    }
+
+    @Min(1)
+    public int getReplicationPageSize()
+    {
+        return replicationPageSize;
+    }
+
+    @Config("store.remote.replication-page-size")
+    public StoreConfig setReplicationPageSize(int replicationPageSize)
+    {
+        this.replicationPageSize = replicationPageSize;
+        return this;
+    }
+
+    @MinDuration("0ms")
+    @NotNull
+    public Duration getBatchLinger()
+    {
+        return batchLinger;
+    }
+
+    @Config("store.remote.batch-linger")
+    public StoreConfig setBatchLinger(Duration batchLinger)
+    {
+        this.batchLinger = batchLinger;
+        return this;
+    }
+
+    @MinDataSize("1B")
+    @NotNull
+    public DataSize getTargetBatchBytes()
+    {
+        return targetBatchBytes;
+    }
+
+    @Config("store.remote.target-batch-size")
+    public StoreConfig setTargetBatchBytes(DataSize targetBatchBytes)
+    {
+        this.targetBatchBytes = targetBatchBytes;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getBatchLatencyTarget()
+    {
+        return batchLatencyTarget;
+    }
+
+    @Config("store.remote.batch-latency-target")
+    public StoreConfig setBatchLatencyTarget(Duration batchLatencyTarget)
+    {
+        this.batchLatencyTarget = batchLatencyTarget;
+        return this;
+    }
+
+    @Min(1)
+    public int getSenderThreads()
+    {
+        return senderThreads;
+    }
+
+    @Config("store.remote.sender-threads")
+    public StoreConfig setSenderThreads(int senderThreads)
+    {
+        this.senderThreads = senderThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxInFlightBatches()
+    {
+        return maxInFlightBatches;
+    }
+
+    @Config("store.remote.max-in-flight-batches")
+    public StoreConfig setMaxInFlightBatches(int maxInFlightBatches)
+    {
+        this.maxInFlightBatches = maxInFlightBatches;
+        return this;
+    }
+
+    @NotNull
+    public Duration getRetryMinBackoff()
+    {
+        return retryMinBackoff;
+    }
+
+    @Config("store.remote.retry-min-backoff")
+    public StoreConfig setRetryMinBackoff(Duration retryMinBackoff)
+    {
+        this.retryMinBackoff = retryMinBackoff;
+        return this;
+    }
+
+    @NotNull
+    public Duration getRetryMaxBackoff()
+    {
+        return retryMaxBackoff;
+    }
+
+    @Config("store.remote.retry-max-backoff")
+    public StoreConfig setRetryMaxBackoff(Duration retryMaxBackoff)
+    {
+        this.retryMaxBackoff = retryMaxBackoff;
+        return this;
+    }
+
+    @Min(1)
+    public int getBreakerFailureThreshold()
+    {
+        return breakerFailureThreshold;
+    }
+
+    @Config("store.remote.breaker-failure-threshold")
+    public StoreConfig setBreakerFailureThreshold(int breakerFailureThreshold)
+    {
+        this.breakerFailureThreshold = breakerFailureThreshold;
+        return this;
+    }
+
+    @NotNull
+    public Duration getBreakerOpenTime()
+    {
+        return breakerOpenTime;
+    }
+
+    @Config("store.remote.breaker-open-time")
+    public StoreConfig setBreakerOpenTime(Duration breakerOpenTime)
+    {
+        this.breakerOpenTime = breakerOpenTime;
+        return this;
+    }
+
+    @NotNull
+    public ReplicationCodec getCompression()
+    {
+        return compression;
+    }
+
+    @Config("store.remote.compression")
+    public StoreConfig setCompression(ReplicationCodec compression)
+    {
+        this.compression = compression;
+        return this;
+    }
+
+    @Min(1)
+    @Max(9)
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    @Config("store.remote.compression-level")
+    public StoreConfig setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public boolean isGossipEnabled()
+    {
+        return gossipEnabled;
+    }
+
+    @Config("store.remote.gossip-enabled")
+    public StoreConfig setGossipEnabled(boolean gossipEnabled)
+    {
+        this.gossipEnabled = gossipEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getGossipFanout()
+    {
+        return gossipFanout;
+    }
+
+    @Config("store.remote.gossip-fanout")
+    public StoreConfig setGossipFanout(int gossipFanout)
+    {
+        this.gossipFanout = gossipFanout;
+        return this;
+    }
+
+    @Min(1)
+    public int getGossipRumorRounds()
+    {
+        return gossipRumorRounds;
+    }
+
+    @Config("store.remote.gossip-rumor-rounds")
+    public StoreConfig setGossipRumorRounds(int gossipRumorRounds)
+    {
+        this.gossipRumorRounds = gossipRumorRounds;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getGossipInterval()
+    {
+        return gossipInterval;
+    }
+
+    @Config("store.remote.gossip-interval")
+    public StoreConfig setGossipInterval(Duration gossipInterval)
+    {
+        this.gossipInterval = gossipInterval;
+        return this;
+    }
 }
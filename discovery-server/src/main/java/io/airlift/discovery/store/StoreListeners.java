@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.log.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+class StoreListeners
+{
+    private static final Logger log = Logger.get(StoreListeners.class);
+
+    private final List<StoreListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void add(StoreListener listener)
+    {
+        listeners.add(checkNotNull(listener, "listener is null"));
+    }
+
+    public boolean isEmpty()
+    {
+        return listeners.isEmpty();
+    }
+
+    public void fire(byte[] key, Entry oldEntry, Entry newEntry)
+    {
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        List<StoreChange> changes = ImmutableList.of(new StoreChange(key, oldEntry, newEntry));
+        for (StoreListener listener : listeners) {
+            try {
+                listener.onChanges(changes);
+            }
+            catch (RuntimeException e) {
+                // the change is already applied, so don't fail the writer
+                log.error(e, "Store listener failed");
+            }
+        }
+    }
+}
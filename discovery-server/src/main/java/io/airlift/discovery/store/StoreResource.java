@@ -15,36 +15,61 @@
  */
 package io.airlift.discovery.store;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
 import com.google.inject.Inject;
 import io.airlift.units.Duration;
 import jakarta.annotation.Nullable;
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
 
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
 
 @Path("/v1/store/{store}")
+@ReplicationEncoded
 public class StoreResource
 {
+    private static final ObjectWriter SMILE_WRITER = new ObjectMapper(new SmileFactory()).writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     private final Map<String, LocalStore> localStores;
+    private final Map<String, MerkleTree> merkleTrees;
+    private final Map<String, ChangeLog> changeLogs;
     private final Map<String, Duration> tombstoneMaxAges;
 
     @Inject
-    public StoreResource(Map<String, LocalStore> localStores, Map<String, StoreConfig> configs)
+    public StoreResource(Map<String, LocalStore> localStores, Map<String, MerkleTree> merkleTrees, Map<String, ChangeLog> changeLogs, Map<String, StoreConfig> configs)
     {
         this.localStores = ImmutableMap.copyOf(localStores);
+        this.merkleTrees = ImmutableMap.copyOf(merkleTrees);
+        this.changeLogs = ImmutableMap.copyOf(changeLogs);
         this.tombstoneMaxAges = ImmutableMap.copyOf(Maps.transformValues(configs, new Function<StoreConfig, Duration>()
         {
             @Override
@@ -83,15 +108,170 @@ public class StoreResource
         return Response.noContent().build();
     }
 
+    /**
+     * Streams the entries of the store in key order. If {@code after} is specified, only
+     * the entries with keys after that (base64url encoded) key are returned, so a reader
+     * can fetch a large store in pages by passing the last key of the previous page.
+     */
     @GET
-    @Produces({"application/x-jackson-smile", "application/json"})
-    public Response getAll(@PathParam("store") String storeName)
+    @Produces("application/x-jackson-smile")
+    public Response getAllSmile(@PathParam("store") String storeName, @QueryParam("after") String after, @QueryParam("limit") Integer limit)
+    {
+        return getAll(storeName, after, limit, SMILE_WRITER);
+    }
+
+    @GET
+    @Produces("application/json")
+    public Response getAllJson(@PathParam("store") String storeName, @QueryParam("after") String after, @QueryParam("limit") Integer limit)
+    {
+        return getAll(storeName, after, limit, JSON_WRITER);
+    }
+
+    private Response getAll(String storeName, @Nullable String after, @Nullable Integer limit, ObjectWriter writer)
     {
         LocalStore store = localStores.get(storeName);
         if (store == null) {
             return Response.status(Status.NOT_FOUND).build();
         }
-        return Response.ok(store.getAll()).build();
+        if (limit != null && limit <= 0) {
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+
+        byte[] afterKey = null;
+        if (after != null) {
+            try {
+                afterKey = Base64.getUrlDecoder().decode(after);
+            }
+            catch (IllegalArgumentException e) {
+                return Response.status(Status.BAD_REQUEST).build();
+            }
+        }
+
+        byte[] startKey = afterKey;
+        int maxEntries = firstNonNull(limit, Integer.MAX_VALUE);
+        StreamingOutput output = stream -> {
+            try (EntryIterator entries = store.scan(startKey);
+                    JsonGenerator generator = writer.getFactory().createGenerator(stream)) {
+                generator.writeStartArray();
+                for (int count = 0; count < maxEntries && entries.hasNext(); count++) {
+                    writer.writeValue(generator, entries.next());
+                }
+                generator.writeEndArray();
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    /**
+     * Returns the entries changed since the specified position of the change log of
+     * the store. Without a position, or if the position is no longer in the log, only
+     * the current position is returned.
+     */
+    @GET
+    @Path("changes")
+    @Produces({"application/x-jackson-smile", "application/json"})
+    public Response getChanges(@PathParam("store") String storeName, @QueryParam("log") String logId, @QueryParam("since") @DefaultValue("0") long since)
+    {
+        LocalStore store = localStores.get(storeName);
+        ChangeLog changeLog = changeLogs.get(storeName);
+        if (store == null || changeLog == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+
+        ChangeLog.Changes changes = null;
+        if (changeLog.getLogId().equals(logId)) {
+            changes = changeLog.getChangesSince(since);
+        }
+        if (changes == null) {
+            return Response.ok(new StoreChanges(changeLog.getLogId(), changeLog.getLastSequence(), false, ImmutableList.of())).build();
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (byte[] key : changes.getKeys()) {
+            Entry entry = store.get(key);
+            // keys removed from the store were expired, and expire on every node
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return Response.ok(new StoreChanges(changeLog.getLogId(), changes.getSequence(), true, entries)).build();
+    }
+
+    /**
+     * Returns the hashes of one level of the Merkle tree of the store.
+     */
+    @GET
+    @Path("merkle")
+    @Produces({"application/x-jackson-smile", "application/json"})
+    public Response getMerkleLevel(@PathParam("store") String storeName, @QueryParam("level") @DefaultValue("0") int level)
+    {
+        MerkleTree tree = merkleTrees.get(storeName);
+        if (tree == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        if (level < 0 || level > MerkleTree.DEPTH) {
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+        return Response.ok(tree.getLevel(level)).build();
+    }
+
+    /**
+     * Compares the digest of the requester with the entries in the same Merkle tree
+     * buckets of this store. Returns the entries the requester is missing or has an
+     * older version of, and the keys for which the requester has a newer version or
+     * which this store does not have.
+     */
+    @POST
+    @Path("digest")
+    @Consumes({"application/x-jackson-smile", "application/json"})
+    @Produces({"application/x-jackson-smile", "application/json"})
+    public Response compareDigest(@PathParam("store") String storeName, DigestRequest digest)
+    {
+        LocalStore store = localStores.get(storeName);
+        MerkleTree tree = merkleTrees.get(storeName);
+        if (store == null || tree == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+
+        long[] keyHashes = digest.getKeyHashes();
+        long[] sequences = digest.getSequences();
+        Map<Long, Long> remoteSequences = new HashMap<>();
+        for (int i = 0; i < keyHashes.length; i++) {
+            remoteSequences.put(keyHashes[i], sequences[i]);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        List<Long> wanted = new ArrayList<>();
+        Set<Long> localKeyHashes = new HashSet<>();
+        for (int bucket : digest.getBuckets()) {
+            if (bucket < 0 || bucket >= MerkleTree.LEAF_COUNT) {
+                return Response.status(Status.BAD_REQUEST).build();
+            }
+            for (byte[] key : tree.getKeys(bucket)) {
+                Entry entry = store.get(key);
+                if (entry == null) {
+                    continue;
+                }
+
+                long keyHash = DigestRequest.hashKey(key);
+                localKeyHashes.add(keyHash);
+
+                Long remoteSequence = remoteSequences.get(keyHash);
+                if (remoteSequence == null || remoteSequence < entry.getVersion().getSequence()) {
+                    entries.add(entry);
+                }
+                else if (remoteSequence > entry.getVersion().getSequence()) {
+                    wanted.add(keyHash);
+                }
+            }
+        }
+        for (long keyHash : remoteSequences.keySet()) {
+            if (!localKeyHashes.contains(keyHash)) {
+                wanted.add(keyHash);
+            }
+        }
+
+        return Response.ok(new DigestResponse(entries, Longs.toArray(wanted))).build();
     }
 
     private boolean isExpired(Duration tombstoneMaxAge, Entry entry)
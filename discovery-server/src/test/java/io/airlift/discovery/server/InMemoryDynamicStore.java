@@ -26,8 +26,10 @@ import org.joda.time.DateTime;
 import com.google.errorprone.annotations.ThreadSafe;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.google.common.base.Predicates.and;
 import static com.google.common.collect.Collections2.transform;
@@ -43,6 +45,8 @@ public class InMemoryDynamicStore
     private final Map<Id<Node>, Entry> descriptors = Maps.newHashMap();
     private final Duration maxAge;
     private final Supplier<DateTime> currentTime;
+    private ServiceIndex index = ServiceIndex.EMPTY;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
 
     @Inject
     public InMemoryDynamicStore(DiscoveryConfig config, Supplier<DateTime> timeSource)
@@ -61,6 +65,7 @@ public class InMemoryDynamicStore
 
         DateTime expiration = currentTime.get().plusMillis((int) maxAge.toMillis());
         descriptors.put(nodeId, new Entry(expiration, services));
+        listeners.forEach(Runnable::run);
     }
 
     @Override
@@ -69,6 +74,20 @@ public class InMemoryDynamicStore
         Preconditions.checkNotNull(nodeId, "nodeId is null");
 
         descriptors.remove(nodeId);
+        listeners.forEach(Runnable::run);
+    }
+
+    @Override
+    public void addIndexListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized ServiceIndex getIndex()
+    {
+        index = index.update(getAll());
+        return index;
     }
 
     @Override
@@ -19,8 +19,10 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.google.common.base.Predicates.and;
 import static com.google.common.collect.Iterables.filter;
@@ -31,6 +33,8 @@ public class InMemoryStaticStore
         implements StaticStore
 {
     private final Map<Id<Service>, Service> services = Maps.newHashMap();
+    private ServiceIndex index = ServiceIndex.EMPTY;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
 
     @Override
     public synchronized void put(Service service)
@@ -39,12 +43,27 @@ public class InMemoryStaticStore
         Preconditions.checkArgument(service.getNodeId() == null, "service.nodeId should be null");
 
         services.put(service.getId(), service);
+        listeners.forEach(Runnable::run);
     }
 
     @Override
     public synchronized void delete(Id<Service> id)
     {
         services.remove(id);
+        listeners.forEach(Runnable::run);
+    }
+
+    @Override
+    public void addIndexListener(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized ServiceIndex getIndex()
+    {
+        index = index.update(services.values());
+        return index;
     }
 
     @Override
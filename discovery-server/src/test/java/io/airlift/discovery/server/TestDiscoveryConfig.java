@@ -18,6 +18,8 @@ package io.airlift.discovery.server;
 import com.google.common.collect.ImmutableMap;
 import io.airlift.configuration.testing.ConfigAssertions;
 import io.airlift.units.Duration;
+import io.airlift.units.MaxDuration;
+import io.airlift.units.MinDuration;
 import org.testng.annotations.Test;
 
 import jakarta.validation.constraints.NotNull;
@@ -34,7 +36,9 @@ public class TestDiscoveryConfig
     {
         ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(DiscoveryConfig.class)
                 .setMaxAge(new Duration(30, TimeUnit.SECONDS))
-                .setStoreCacheTtl(new Duration(1, TimeUnit.SECONDS)));
+                .setStoreCacheTtl(new Duration(1, TimeUnit.SECONDS))
+                .setWatchMaxWait(new Duration(1, TimeUnit.MINUTES))
+                .setChangeHistorySize(100));
     }
 
     @Test
@@ -43,11 +47,15 @@ public class TestDiscoveryConfig
         Map<String, String> properties = ImmutableMap.<String, String>builder()
                 .put("discovery.max-age", "1m")
                 .put("discovery.store-cache-ttl", "13s")
+                .put("discovery.watch-max-wait", "5m")
+                .put("discovery.change-history-size", "500")
                 .build();
 
         DiscoveryConfig expected = new DiscoveryConfig()
                 .setMaxAge(new Duration(1, TimeUnit.MINUTES))
-                .setStoreCacheTtl(new Duration(13, TimeUnit.SECONDS));
+                .setStoreCacheTtl(new Duration(13, TimeUnit.SECONDS))
+                .setWatchMaxWait(new Duration(5, TimeUnit.MINUTES))
+                .setChangeHistorySize(500);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -59,4 +67,11 @@ public class TestDiscoveryConfig
 
         assertFailsValidation(config, "maxAge", "must not be null", NotNull.class);
     }
+
+    @Test
+    public void testValidatesWatchMaxWait()
+    {
+        assertFailsValidation(new DiscoveryConfig().setWatchMaxWait(new Duration(10, TimeUnit.MILLISECONDS)), "watchMaxWait", "must be greater than or equal to 1s", MinDuration.class);
+        assertFailsValidation(new DiscoveryConfig().setWatchMaxWait(new Duration(1, TimeUnit.HOURS)), "watchMaxWait", "must be less than or equal to 10m", MaxDuration.class);
+    }
 }
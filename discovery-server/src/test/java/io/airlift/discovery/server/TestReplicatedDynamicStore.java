@@ -16,14 +16,22 @@
 package io.airlift.discovery.server;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import io.airlift.discovery.store.ConflictResolver;
 import io.airlift.discovery.store.DistributedStore;
 import io.airlift.discovery.store.InMemoryStore;
 import io.airlift.discovery.store.RemoteStore;
 import io.airlift.discovery.store.StoreConfig;
+import io.airlift.units.Duration;
 import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
 
 import static io.airlift.json.JsonCodec.listJsonCodec;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class TestReplicatedDynamicStore
         extends TestDynamicStore
@@ -37,4 +45,56 @@ public class TestReplicatedDynamicStore
 
         return new ReplicatedDynamicStore(distributedStore, config, listJsonCodec(Service.class));
     }
+
+    @Test
+    public void testDecodesOnlyChangedEntries()
+    {
+        ReplicatedDynamicStore replicatedStore = (ReplicatedDynamicStore) store;
+
+        Id<Node> blueNodeId = Id.random();
+        store.put(blueNodeId, new DynamicAnnouncement("testing", "poolA", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("http", "http://localhost:1111")))));
+        Id<Node> redNodeId = Id.random();
+        store.put(redNodeId, new DynamicAnnouncement("testing", "poolA", "/x/y/z", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("http", "http://localhost:2222")))));
+
+        assertEquals(store.getAll().size(), 2);
+        assertEquals(replicatedStore.getDecodes(), 2);
+
+        // writes also trigger rebuilds in the background, so only the decodes are exact
+        long reuses = replicatedStore.getReuses();
+        assertEquals(store.getAll().size(), 2);
+        assertEquals(replicatedStore.getDecodes(), 2);
+        assertTrue(replicatedStore.getReuses() >= reuses + 2);
+
+        currentTime.increment();
+        store.put(blueNodeId, new DynamicAnnouncement("testing", "poolA", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("http", "http://localhost:3333")))));
+
+        assertEquals(store.getAll().size(), 2);
+        assertEquals(replicatedStore.getDecodes(), 3);
+    }
+
+    @Test
+    public void testPutIsVisibleBeforeTtl()
+    {
+        RemoteStore dummy = entry -> {};
+        DistributedStore distributedStore = new DistributedStore("dynamic", new InMemoryStore(new ConflictResolver()), dummy, new StoreConfig(), currentTime);
+        DiscoveryConfig config = new DiscoveryConfig()
+                .setMaxAge(new Duration(1, TimeUnit.MINUTES))
+                .setStoreCacheTtl(new Duration(1, TimeUnit.HOURS));
+        ReplicatedDynamicStore cachedStore = new ReplicatedDynamicStore(distributedStore, config, listJsonCodec(Service.class));
+        cachedStore.start();
+        try {
+            assertTrue(cachedStore.getAll().isEmpty());
+
+            // the change invalidates the cached index instead of waiting for the next refresh
+            cachedStore.put(Id.random(), new DynamicAnnouncement("testing", "poolA", "/a/b/c", ImmutableSet.of(
+                    new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("http", "http://localhost:1111")))));
+            assertEquals(cachedStore.getAll().size(), 1);
+        }
+        finally {
+            cachedStore.stop();
+        }
+    }
 }
@@ -16,14 +16,21 @@
 package io.airlift.discovery.server;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import io.airlift.discovery.store.ConflictResolver;
 import io.airlift.discovery.store.DistributedStore;
 import io.airlift.discovery.store.InMemoryStore;
 import io.airlift.discovery.store.RemoteStore;
 import io.airlift.discovery.store.StoreConfig;
 import org.joda.time.DateTime;
+import org.testng.annotations.Test;
 
 import static io.airlift.json.JsonCodec.jsonCodec;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public class TestReplicatedStaticStore
         extends TestStaticStore
@@ -35,6 +42,35 @@ public class TestReplicatedStaticStore
 
         DistributedStore distributedStore = new DistributedStore("static", new InMemoryStore(new ConflictResolver()), dummy, new StoreConfig(), timeSupplier);
 
-        return new ReplicatedStaticStore(distributedStore, jsonCodec(Service.class));
+        return new ReplicatedStaticStore(distributedStore, new DiscoveryConfig(), jsonCodec(Service.class));
+    }
+
+    @Test
+    public void testServesSnapshotUntilChanged()
+    {
+        Service blue = new Service(Id.random(), null, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        store.put(blue);
+
+        ServiceIndex index = store.getIndex();
+        assertSame(store.getIndex(), index);
+        assertEquals(index.getAll(), ImmutableSet.of(blue));
+
+        currentTime.increment();
+        store.delete(blue.getId());
+        assertNotSame(store.getIndex(), index);
+        assertTrue(store.getAll().isEmpty());
+    }
+
+    @Test
+    public void testReadSeesLocalWriteBeforeTtl()
+    {
+        Service blue = new Service(Id.random(), null, "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+        Service red = new Service(Id.random(), null, "storage", "poolB", "/a/b/d", ImmutableMap.of("http", "http://localhost:2222"));
+        store.put(blue);
+        assertEquals(store.getAll(), ImmutableSet.of(blue));
+
+        // the snapshot is cached for the default ttl of a second, but a write invalidates it
+        store.put(red);
+        assertEquals(store.getAll(), ImmutableSet.of(blue, red));
     }
 }
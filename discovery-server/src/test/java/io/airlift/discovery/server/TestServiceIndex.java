@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import static io.airlift.testing.Assertions.assertEqualsIgnoreOrder;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceIndex
+{
+    private static final Service BLUE = new Service(Id.random(), Id.random(), "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+    private static final Service RED = new Service(Id.random(), Id.random(), "storage", "poolB", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222"));
+    private static final Service GREEN = new Service(Id.random(), Id.random(), "monitoring", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:3333"));
+    private static final Service YELLOW = new Service(Id.random(), Id.random(), "storage", "poolB", "/a/b/c", ImmutableMap.of("http", "http://localhost:4444"));
+
+    @Test
+    public void testEmpty()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of());
+
+        assertSame(index, ServiceIndex.EMPTY);
+        assertTrue(index.getAll().isEmpty());
+        assertTrue(index.get("storage").isEmpty());
+        assertTrue(index.get("storage", "poolA").isEmpty());
+    }
+
+    @Test
+    public void testGetAll()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN, YELLOW));
+
+        assertEqualsIgnoreOrder(index.getAll(), ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+    }
+
+    @Test
+    public void testGetByType()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN, YELLOW));
+
+        assertEqualsIgnoreOrder(index.get("storage"), ImmutableSet.of(BLUE, RED, YELLOW));
+        assertEqualsIgnoreOrder(index.get("monitoring"), ImmutableSet.of(GREEN));
+        assertTrue(index.get("unknown").isEmpty());
+    }
+
+    @Test
+    public void testGetByTypeAndPool()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN, YELLOW));
+
+        assertEqualsIgnoreOrder(index.get("storage", "poolA"), ImmutableSet.of(BLUE));
+        assertEqualsIgnoreOrder(index.get("storage", "poolB"), ImmutableSet.of(RED, YELLOW));
+        assertEqualsIgnoreOrder(index.get("monitoring", "poolA"), ImmutableSet.of(GREEN));
+        assertTrue(index.get("monitoring", "poolB").isEmpty());
+        assertTrue(index.get("unknown", "poolA").isEmpty());
+    }
+
+    @Test
+    public void testLookupsReturnSharedSets()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN, YELLOW));
+
+        assertSame(index.get("storage"), index.get("storage"));
+        assertSame(index.get("storage", "poolB"), index.get("storage", "poolB"));
+        assertEquals(index.get("storage", "poolB").size(), 2);
+    }
+
+    @Test
+    public void testUnchangedUpdateReturnsSameIndex()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN));
+
+        assertSame(index.update(ImmutableList.of(GREEN, RED, BLUE)), index);
+        assertEquals(index.getGeneration(), 1);
+    }
+
+    @Test
+    public void testUpdateOnlyChangesAffectedGroups()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN));
+        assertEquals(index.getGeneration("storage", "poolA"), 1);
+        assertEquals(index.getGeneration("monitoring", "poolA"), 1);
+
+        ServiceIndex updated = index.update(ImmutableList.of(BLUE, RED, GREEN, YELLOW));
+        assertEquals(updated.getGeneration(), 2);
+        assertEquals(updated.getGeneration("storage"), 2);
+        assertEquals(updated.getGeneration("storage", "poolB"), 2);
+        assertEqualsIgnoreOrder(updated.get("storage", "poolB"), ImmutableSet.of(RED, YELLOW));
+
+        // untouched groups keep their generation and their set
+        assertEquals(updated.getGeneration("storage", "poolA"), 1);
+        assertSame(updated.get("storage", "poolA"), index.get("storage", "poolA"));
+        assertEquals(updated.getGeneration("monitoring"), 1);
+        assertSame(updated.get("monitoring"), index.get("monitoring"));
+    }
+
+    @Test
+    public void testUpdateDetectsChangedProperties()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, GREEN));
+
+        Service changedBlue = new Service(BLUE.getId(), BLUE.getNodeId(), BLUE.getType(), BLUE.getPool(), BLUE.getLocation(), ImmutableMap.of("http", "http://localhost:9999"));
+        ServiceIndex updated = index.update(ImmutableList.of(changedBlue, GREEN));
+
+        assertEquals(updated.getGeneration("storage", "poolA"), 2);
+        assertEquals(updated.get("storage", "poolA").iterator().next().getProperties(), changedBlue.getProperties());
+        assertEquals(updated.getGeneration("monitoring", "poolA"), 1);
+    }
+
+    @Test
+    public void testRemovedGroupsHaveGenerationZero()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, GREEN));
+
+        ServiceIndex updated = index.update(ImmutableList.of(BLUE));
+        assertEquals(updated.getGeneration(), 2);
+        assertEquals(updated.getGeneration("monitoring"), 0);
+        assertEquals(updated.getGeneration("monitoring", "poolA"), 0);
+        assertTrue(updated.get("monitoring", "poolA").isEmpty());
+        assertEquals(updated.getGeneration("storage", "poolA"), 1);
+    }
+
+    @Test
+    public void testGetChangesSince()
+    {
+        ServiceIndex first = ServiceIndex.of(ImmutableList.of(BLUE, RED));
+        Service changedRed = new Service(RED.getId(), RED.getNodeId(), RED.getType(), RED.getPool(), RED.getLocation(), ImmutableMap.of("http", "http://localhost:9999"));
+        ServiceIndex second = first.update(ImmutableList.of(BLUE, changedRed, GREEN));
+        ServiceIndex third = second.update(ImmutableList.of(changedRed, GREEN, YELLOW));
+
+        ServiceIndex.Delta delta = third.getChangesSince(first.getGeneration());
+        assertEqualsIgnoreOrder(delta.getAdded(), ImmutableSet.of(changedRed, GREEN, YELLOW));
+        assertEquals(delta.getRemoved(), ImmutableSet.of(BLUE.getId()));
+        assertEquals(delta.getAdded().stream().filter(RED::equals).findFirst().get().getProperties(), changedRed.getProperties());
+
+        delta = third.getChangesSince(0);
+        assertEqualsIgnoreOrder(delta.getAdded(), ImmutableSet.of(changedRed, GREEN, YELLOW));
+        assertEqualsIgnoreOrder(delta.getRemoved(), ImmutableSet.of(BLUE.getId()));
+
+        delta = third.getChangesSince(third.getGeneration());
+        assertTrue(delta.getAdded().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+
+        assertNull(third.getChangesSince(third.getGeneration() + 1));
+    }
+
+    @Test
+    public void testOldChangesAreDropped()
+    {
+        ServiceIndex index = ServiceIndex.EMPTY;
+        for (int i = 0; i < 150; i++) {
+            index = index.update(ImmutableList.of(new Service(Id.random(), Id.random(), "storage", "poolA", "/a/b/c", ImmutableMap.of())));
+        }
+
+        assertEquals(index.getGeneration(), 150);
+        assertNull(index.getChangesSince(0));
+        assertNull(index.getChangesSince(49));
+        assertEquals(index.getChangesSince(50).getAdded().size(), 1);
+        assertEquals(index.getChangesSince(50).getRemoved().size(), 100);
+    }
+
+    @Test
+    public void testChangeHistorySize()
+    {
+        ServiceIndex index = ServiceIndex.empty(2);
+        for (int i = 0; i < 5; i++) {
+            index = index.update(ImmutableList.of(new Service(Id.random(), Id.random(), "storage", "poolA", "/a/b/c", ImmutableMap.of())));
+        }
+
+        assertNull(index.getChangesSince(2));
+        assertEquals(index.getChangesSince(3).getAdded().size(), 1);
+    }
+
+    @Test
+    public void testInvalidGenerations()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, RED));
+
+        // generations come from clients, so out of range values must not overflow the offset
+        assertNull(index.getChangesSince(-1));
+        assertNull(index.getChangesSince(Long.MIN_VALUE));
+        assertNull(index.getChangesSince(Long.MIN_VALUE + 1));
+        assertNull(index.getChangesSince(Long.MAX_VALUE));
+    }
+}
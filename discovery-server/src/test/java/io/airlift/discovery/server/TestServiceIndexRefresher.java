@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceIndexRefresher
+{
+    private static final Service BLUE = new Service(Id.random(), Id.random(), "storage", "poolA", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111"));
+    private static final Service RED = new Service(Id.random(), Id.random(), "storage", "poolB", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222"));
+
+    @Test
+    public void testZeroTtlRebuildsOnRead()
+    {
+        AtomicReference<List<Service>> services = new AtomicReference<>(ImmutableList.of(BLUE));
+        ServiceIndexRefresher refresher = new ServiceIndexRefresher("test", services::get, new Duration(0, TimeUnit.SECONDS));
+        try {
+            assertEquals(refresher.get().getAll(), ImmutableSet.of(BLUE));
+            services.set(ImmutableList.of(BLUE, RED));
+            assertEquals(refresher.get().getAll().size(), 2);
+        }
+        finally {
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testReadersGetPublishedSnapshot()
+    {
+        AtomicReference<List<Service>> services = new AtomicReference<>(ImmutableList.of(BLUE));
+        ServiceIndexRefresher refresher = new ServiceIndexRefresher("test", services::get, new Duration(1, TimeUnit.HOURS));
+        try {
+            // the first read builds the snapshot
+            ServiceIndex index = refresher.get();
+            assertEquals(index.getAll().size(), 1);
+            assertTrue(refresher.getSnapshotAgeMillis() >= 0);
+
+            // later reads do not rebuild it
+            services.set(ImmutableList.of(BLUE, RED));
+            assertSame(refresher.get(), index);
+            assertEquals(refresher.getBuildTime().getAllTime().getCount(), 1.0);
+        }
+        finally {
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        AtomicReference<List<Service>> services = new AtomicReference<>(ImmutableList.of(BLUE));
+        ServiceIndexRefresher refresher = new ServiceIndexRefresher("test", services::get, new Duration(1, TimeUnit.HOURS));
+        try {
+            assertEquals(refresher.get().getAll().size(), 1);
+
+            // the rebuild runs in the background, but the next read waits for it
+            services.set(ImmutableList.of(BLUE, RED));
+            refresher.invalidate();
+            assertEquals(refresher.get().getAll().size(), 2);
+            assertEquals(refresher.getInvalidations(), 1);
+        }
+        finally {
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testReadersDoNotWaitForPeriodicRefresh()
+            throws Exception
+    {
+        CountDownLatch rebuildStarted = new CountDownLatch(1);
+        CountDownLatch releaseRebuild = new CountDownLatch(1);
+        AtomicReference<List<Service>> services = new AtomicReference<>(ImmutableList.of(BLUE));
+        ServiceIndexRefresher refresher = new ServiceIndexRefresher("test", () -> {
+            List<Service> current = services.get();
+            if (current.size() == 2) {
+                rebuildStarted.countDown();
+                try {
+                    releaseRebuild.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return current;
+        }, new Duration(10, TimeUnit.MILLISECONDS));
+        try {
+            ServiceIndex index = refresher.get();
+
+            services.set(ImmutableList.of(BLUE, RED));
+            refresher.start();
+            assertTrue(rebuildStarted.await(10, TimeUnit.SECONDS), "rebuild did not start");
+
+            // the rebuild is blocked, but readers get the published snapshot
+            assertSame(refresher.get(), index);
+
+            releaseRebuild.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (refresher.get().getAll().size() != 2) {
+                assertTrue(System.nanoTime() < deadline, "snapshot was not rebuilt");
+                Thread.sleep(10);
+            }
+        }
+        finally {
+            releaseRebuild.countDown();
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testListenersAreCalledOnChange()
+    {
+        AtomicReference<List<Service>> services = new AtomicReference<>(ImmutableList.of(BLUE));
+        AtomicInteger notifications = new AtomicInteger();
+        ServiceIndexRefresher refresher = new ServiceIndexRefresher("test", services::get, new Duration(0, TimeUnit.SECONDS));
+        refresher.addListener(notifications::incrementAndGet);
+        try {
+            refresher.get();
+            assertEquals(notifications.get(), 1);
+
+            // rebuilds that do not change the index are not reported
+            refresher.get();
+            assertEquals(notifications.get(), 1);
+
+            services.set(ImmutableList.of(BLUE, RED));
+            refresher.get();
+            assertEquals(notifications.get(), 2);
+        }
+        finally {
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testBackgroundRefresh()
+            throws Exception
+    {
+        AtomicReference<List<Service>> services = new AtomicReference<>(ImmutableList.of(BLUE));
+        ServiceIndexRefresher refresher = new ServiceIndexRefresher("test", services::get, new Duration(10, TimeUnit.MILLISECONDS));
+        try {
+            refresher.start();
+            assertEquals(refresher.get().getAll().size(), 1);
+
+            services.set(ImmutableList.of(BLUE, RED));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (refresher.get().getAll().size() != 2) {
+                assertTrue(System.nanoTime() < deadline, "snapshot was not refreshed");
+                Thread.sleep(10);
+            }
+        }
+        finally {
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testFailedRefreshKeepsSnapshot()
+            throws Exception
+    {
+        AtomicReference<List<Service>> services = new AtomicReference<>(ImmutableList.of(BLUE));
+        ServiceIndexRefresher refresher = new ServiceIndexRefresher("test", services::get, new Duration(10, TimeUnit.MILLISECONDS));
+        try {
+            ServiceIndex index = refresher.get();
+
+            // a null list makes the rebuild fail
+            services.set(null);
+            refresher.start();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (refresher.getRefreshFailures() == 0) {
+                assertTrue(System.nanoTime() < deadline, "refresh did not fail");
+                Thread.sleep(10);
+            }
+            assertSame(refresher.get(), index);
+        }
+        finally {
+            refresher.stop();
+        }
+    }
+}
@@ -16,26 +16,52 @@
 package io.airlift.discovery.server;
 
 import com.google.common.collect.ImmutableMap;
+import io.airlift.json.JsonCodec;
 import io.airlift.node.NodeInfo;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.Response;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import static com.google.common.collect.ImmutableSet.of;
 import static io.airlift.discovery.server.DynamicServiceAnnouncement.toServiceWith;
+import static io.airlift.json.JsonCodec.jsonCodec;
+import static io.airlift.testing.Assertions.assertNotEquals;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public class TestServiceResource
 {
+    private static final JsonCodec<Services> SERVICES_CODEC = jsonCodec(Services.class);
+
     private InMemoryDynamicStore dynamicStore;
+    private ServiceResponseCache responseCache;
+    private ServiceWatcher watcher;
     private ServiceResource resource;
 
     @BeforeMethod
     protected void setUp()
     {
         dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeSupplier());
-        resource = new ServiceResource(dynamicStore, new InMemoryStaticStore(), new NodeInfo("testing"));
+        InMemoryStaticStore staticStore = new InMemoryStaticStore();
+        responseCache = new ServiceResponseCache(SERVICES_CODEC);
+        watcher = new ServiceWatcher(dynamicStore, staticStore, new DiscoveryConfig());
+        resource = new ServiceResource(dynamicStore, staticStore, new NodeInfo("testing"), responseCache, watcher);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        watcher.stop();
     }
 
     @Test
@@ -58,15 +84,15 @@ public class TestServiceResource
         dynamicStore.put(greenNodeId, green);
         dynamicStore.put(blueNodeId, blue);
 
-        assertEquals(resource.getServices("storage"), new Services("testing", of(
+        assertEquals(servicesOf(resource.getServices("storage", null)), new Services("testing", of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
                 toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage),
                 toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
 
-        assertEquals(resource.getServices("web"), new Services("testing", of(
+        assertEquals(servicesOf(resource.getServices("web", null)), new Services("testing", of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redWeb))));
 
-        assertEquals(resource.getServices("unknown"), new Services("testing", Collections.emptySet()));
+        assertEquals(servicesOf(resource.getServices("unknown", null)), new Services("testing", Collections.emptySet()));
     }
 
     @Test
@@ -89,13 +115,13 @@ public class TestServiceResource
         dynamicStore.put(greenNodeId, green);
         dynamicStore.put(blueNodeId, blue);
 
-        assertEquals(resource.getServices("storage", "alpha"), new Services("testing", of(
+        assertEquals(servicesOf(resource.getServices("storage", "alpha", null)), new Services("testing", of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
                 toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage))));
 
-        assertEquals(resource.getServices("storage", "beta"), new Services("testing", of(toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
+        assertEquals(servicesOf(resource.getServices("storage", "beta", null)), new Services("testing", of(toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
 
-        assertEquals(resource.getServices("storage", "unknown"), new Services("testing", Collections.emptySet()));
+        assertEquals(servicesOf(resource.getServices("storage", "unknown", null)), new Services("testing", Collections.emptySet()));
     }
 
     @Test
@@ -118,10 +144,156 @@ public class TestServiceResource
         dynamicStore.put(greenNodeId, green);
         dynamicStore.put(blueNodeId, blue);
 
-        assertEquals(resource.getServices(), new Services("testing", of(
+        assertEquals(servicesOf(resource.getAllServices(null, null)), new Services("testing", of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redWeb),
                 toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage),
                 toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
     }
+
+    @Test
+    public void testCachesResponses()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "1"));
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage));
+        dynamicStore.put(redNodeId, red);
+
+        byte[] first = (byte[]) resource.getServices("storage", "alpha", null).getEntity();
+        byte[] second = (byte[]) resource.getServices("storage", "alpha", null).getEntity();
+        assertSame(second, first);
+        assertEquals(responseCache.getMisses(), 1);
+        assertEquals(responseCache.getHits(), 1);
+
+        Id<Node> greenNodeId = Id.random();
+        DynamicServiceAnnouncement greenStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "3"));
+        DynamicAnnouncement green = new DynamicAnnouncement("testing", "alpha", "/x/y/z", of(greenStorage));
+        dynamicStore.put(greenNodeId, green);
+
+        assertEquals(servicesOf(resource.getServices("storage", "alpha", null)), new Services("testing", of(
+                toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
+                toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage))));
+        assertEquals(responseCache.getMisses(), 2);
+        assertEquals(responseCache.getHits(), 1);
+    }
+
+    @Test
+    public void testConditionalGet()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "1"))));
+        dynamicStore.put(redNodeId, red);
+
+        Response response = resource.getServices("storage", "alpha", null);
+        assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+        EntityTag entityTag = response.getEntityTag();
+        assertNotNull(entityTag);
+        assertFalse(entityTag.isWeak());
+
+        response = resource.getServices("storage", "alpha", quoted(entityTag));
+        assertEquals(response.getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+        assertNull(response.getEntity());
+        assertEquals(response.getEntityTag(), entityTag);
+        assertEquals(responseCache.getMisses(), 1);
+        assertEquals(responseCache.getHits(), 0);
+
+        // unrelated groups do not change the tag
+        dynamicStore.put(Id.random(), new DynamicAnnouncement("testing", "beta", "/x/y/z", of(new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "2")))));
+        assertEquals(resource.getServices("storage", "alpha", quoted(entityTag)).getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+
+        // but the type and all services tags do change
+        assertEquals(resource.getServices("storage", quoted(entityTag)).getStatus(), Response.Status.OK.getStatusCode());
+        assertEquals(resource.getAllServices(quoted(entityTag), null).getStatus(), Response.Status.OK.getStatusCode());
+
+        dynamicStore.put(Id.random(), new DynamicAnnouncement("testing", "alpha", "/x/y/z", of(new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "3")))));
+        response = resource.getServices("storage", "alpha", quoted(entityTag));
+        assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+        assertNotEquals(response.getEntityTag(), entityTag);
+        assertEquals(servicesOf(response).getServices().size(), 2);
+    }
+
+    @Test
+    public void testGetChangesSince()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "1"));
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage));
+        dynamicStore.put(redNodeId, red);
+
+        // unknown tokens return everything
+        ServiceDelta delta = (ServiceDelta) resource.getAllServices(null, "unknown").getEntity();
+        assertTrue(delta.isFull());
+        assertEquals(delta.getServices(), of(toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage)));
+        assertTrue(delta.getRemoved().isEmpty());
+
+        delta = (ServiceDelta) resource.getAllServices(null, delta.getToken()).getEntity();
+        assertFalse(delta.isFull());
+        assertTrue(delta.getServices().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+
+        Id<Node> greenNodeId = Id.random();
+        DynamicServiceAnnouncement greenStorage = new DynamicServiceAnnouncement(Id.random(), "storage", ImmutableMap.of("key", "2"));
+        DynamicAnnouncement green = new DynamicAnnouncement("testing", "alpha", "/x/y/z", of(greenStorage));
+        dynamicStore.put(greenNodeId, green);
+        dynamicStore.delete(redNodeId);
+
+        Response response = resource.getAllServices(null, delta.getToken());
+        delta = (ServiceDelta) response.getEntity();
+        assertFalse(delta.isFull());
+        assertEquals(delta.getToken(), response.getEntityTag().getValue());
+        assertEquals(delta.getServices(), of(toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage)));
+        assertEquals(delta.getRemoved(), of(redStorage.getId()));
+
+        // tokens from other instances return everything
+        delta = (ServiceDelta) resource.getAllServices(null, "other." + delta.getToken()).getEntity();
+        assertTrue(delta.isFull());
+    }
+
+    @Test
+    public void testTimedOutWatchesAreRemoved()
+    {
+        EntityTag entityTag = resource.getServices("storage", "alpha", null).getEntityTag();
+
+        List<TestingAsyncResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            TestingAsyncResponse response = new TestingAsyncResponse();
+            resource.watchServices("storage", "alpha", quoted(entityTag), "10s", response);
+            assertFalse(response.isDone());
+            responses.add(response);
+        }
+        assertEquals(watcher.getWatchCount(), 1);
+        assertEquals(watcher.getWaiterCount(), 5);
+
+        for (TestingAsyncResponse response : responses) {
+            response.timeout();
+            assertEquals(((Response) response.getResponse()).getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+        }
+        assertEquals(watcher.getWatchCount(), 0);
+        assertEquals(watcher.getWaiterCount(), 0);
+    }
+
+    @Test
+    public void testEntityTagMatching()
+    {
+        EntityTag entityTag = new EntityTag("abc.1.2");
+
+        assertTrue(ServiceResource.matches("\"abc.1.2\"", entityTag));
+        assertTrue(ServiceResource.matches("W/\"abc.1.2\"", entityTag));
+        assertTrue(ServiceResource.matches("\"xyz.1.2\", \"abc.1.2\"", entityTag));
+        assertTrue(ServiceResource.matches("*", entityTag));
+        assertFalse(ServiceResource.matches("\"abc.1.3\"", entityTag));
+        assertFalse(ServiceResource.matches("abc.1.2", entityTag));
+        assertFalse(ServiceResource.matches("", entityTag));
+    }
+
+    private static String quoted(EntityTag entityTag)
+    {
+        return "\"" + entityTag.getValue() + "\"";
+    }
+
+    private static Services servicesOf(Response response)
+    {
+        assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+        return SERVICES_CODEC.fromJson((byte[]) response.getEntity());
+    }
 }
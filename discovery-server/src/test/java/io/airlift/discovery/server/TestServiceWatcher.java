@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+
+public class TestServiceWatcher
+{
+    private InMemoryStaticStore staticStore;
+    private ServiceWatcher watcher;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        staticStore = new InMemoryStaticStore();
+        InMemoryDynamicStore dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeSupplier());
+        watcher = new ServiceWatcher(dynamicStore, staticStore, new DiscoveryConfig());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        watcher.stop();
+    }
+
+    @Test
+    public void testCompletesOnChange()
+            throws Exception
+    {
+        ListenableFuture<Void> future = watcher.waitForChange("storage", "alpha", 0, 0);
+        assertEquals(watcher.getWatchCount(), 1);
+
+        watcher.checkForChanges();
+        assertFalse(future.isDone());
+
+        staticStore.put(new Service(Id.random(), null, "storage", "alpha", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111")));
+        watcher.checkForChanges();
+
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals(watcher.getWatchCount(), 0);
+        assertEquals(watcher.getNotifications(), 1);
+    }
+
+    @Test
+    public void testIgnoresOtherGroups()
+    {
+        ListenableFuture<Void> future = watcher.waitForChange("storage", "alpha", 0, 0);
+
+        staticStore.put(new Service(Id.random(), null, "storage", "beta", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111")));
+        staticStore.put(new Service(Id.random(), null, "monitoring", "alpha", "/a/b/c", ImmutableMap.of("http", "http://localhost:2222")));
+        watcher.checkForChanges();
+
+        assertFalse(future.isDone());
+        assertEquals(watcher.getWatchCount(), 1);
+    }
+
+    @Test
+    public void testWaitersAreGroupedByGeneration()
+            throws Exception
+    {
+        ListenableFuture<Void> first = watcher.waitForChange("storage", "alpha", 0, 0);
+        ListenableFuture<Void> second = watcher.waitForChange("storage", "alpha", 0, 0);
+        assertNotSame(second, first);
+        assertEquals(watcher.getWatchCount(), 1);
+        assertEquals(watcher.getWaiterCount(), 2);
+
+        // a waiter with another generation is completed on its own
+        ListenableFuture<Void> stale = watcher.waitForChange("storage", "alpha", 1, 0);
+        stale.get(10, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(watcher.getWatchCount(), 1);
+        assertEquals(watcher.getWaiterCount(), 2);
+    }
+
+    @Test
+    public void testCancelledWaitersAreRemoved()
+    {
+        ListenableFuture<Void> first = watcher.waitForChange("storage", "alpha", 0, 0);
+        ListenableFuture<Void> second = watcher.waitForChange("storage", "alpha", 0, 0);
+        ListenableFuture<Void> other = watcher.waitForChange("storage", "beta", 0, 0);
+
+        first.cancel(false);
+        assertEquals(watcher.getWatchCount(), 2);
+        assertEquals(watcher.getWaiterCount(), 2);
+
+        second.cancel(false);
+        other.cancel(false);
+        assertEquals(watcher.getWatchCount(), 0);
+        assertEquals(watcher.getWaiterCount(), 0);
+    }
+
+    @Test
+    public void testStaleGenerationCompletesImmediately()
+            throws Exception
+    {
+        // the generations are checked when the waiter is added, so no store change is needed
+        ListenableFuture<Void> future = watcher.waitForChange("storage", "alpha", 42, 0);
+
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals(watcher.getWatchCount(), 0);
+    }
+
+    @Test
+    public void testStoreChangeCompletesWithoutCheck()
+            throws Exception
+    {
+        ListenableFuture<Void> future = watcher.waitForChange("storage", "alpha", 0, 0);
+
+        // the store notifies the watcher when it publishes a new index
+        staticStore.put(new Service(Id.random(), null, "storage", "alpha", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111")));
+
+        future.get(10, TimeUnit.SECONDS);
+        assertEquals(watcher.getWatchCount(), 0);
+    }
+}
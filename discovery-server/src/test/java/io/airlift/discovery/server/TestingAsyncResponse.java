@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.server;
+
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.TimeoutHandler;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the response it is resumed with. The timeout only fires when {@link #timeout()}
+ * is called.
+ */
+class TestingAsyncResponse
+        implements AsyncResponse
+{
+    private Object response;
+    private boolean done;
+    private TimeoutHandler timeoutHandler;
+
+    public synchronized Object getResponse()
+    {
+        return response;
+    }
+
+    public void timeout()
+    {
+        TimeoutHandler handler;
+        synchronized (this) {
+            handler = timeoutHandler;
+        }
+        if (handler != null) {
+            handler.handleTimeout(this);
+        }
+    }
+
+    @Override
+    public synchronized boolean resume(Object response)
+    {
+        if (done) {
+            return false;
+        }
+        this.response = response;
+        done = true;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean resume(Throwable response)
+    {
+        return resume((Object) response);
+    }
+
+    @Override
+    public boolean cancel()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean cancel(int retryAfter)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean cancel(Date retryAfter)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized boolean isSuspended()
+    {
+        return !done;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone()
+    {
+        return done;
+    }
+
+    @Override
+    public boolean setTimeout(long time, TimeUnit unit)
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void setTimeoutHandler(TimeoutHandler handler)
+    {
+        this.timeoutHandler = handler;
+    }
+
+    @Override
+    public Collection<Class<?>> register(Class<?> callback)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<Class<?>> register(Object callback)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks)
+    {
+        throw new UnsupportedOperationException();
+    }
+}
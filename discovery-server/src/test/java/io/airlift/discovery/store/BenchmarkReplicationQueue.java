@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Compares offers to a full replication queue: the {@link CoalescingQueue} ring buffer
+ * against the {@link ArrayBlockingQueue} drop-oldest loop it replaced. Keys are
+ * distinct, so every offer to either queue drops the oldest element.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkReplicationQueue
+{
+    private static final int QUEUE_SIZE = 1024;
+
+    private BlockingQueue<Long> blockingQueue;
+    private CoalescingQueue<Long> coalescingQueue;
+
+    private static final AtomicLong PRODUCER_IDS = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Producer
+    {
+        private long next = PRODUCER_IDS.incrementAndGet() << 32;
+
+        public long next()
+        {
+            return next++;
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        blockingQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        coalescingQueue = new CoalescingQueue<>(QUEUE_SIZE, Function.identity(), BinaryOperator.maxBy(Long::compare));
+    }
+
+    @Benchmark
+    public void arrayBlockingQueue(Producer producer)
+    {
+        Long element = producer.next();
+        while (!blockingQueue.offer(element)) {
+            blockingQueue.poll();
+        }
+    }
+
+    @Benchmark
+    public void coalescingQueue(Producer producer)
+    {
+        coalescingQueue.offer(producer.next());
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        for (int threads : new int[] {1, 8, 64}) {
+            Options options = new OptionsBuilder()
+                    .include(".*" + BenchmarkReplicationQueue.class.getSimpleName() + ".*")
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateVoidFuture;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestBatchProcessor
+{
+    private final BlockingQueue<List<Entry>> batches = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService senderExecutor;
+    private BatchProcessor<Entry> processor;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        senderExecutor = newScheduledThreadPool(2, daemonThreadsNamed("test-sender-%s"));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        if (processor != null) {
+            processor.stop();
+        }
+        senderExecutor.shutdownNow();
+        batches.clear();
+    }
+
+    @Test
+    public void testLingerFillsBatch()
+            throws Exception
+    {
+        processor = newProcessor(new StoreConfig()
+                .setMaxBatchSize(3)
+                .setBatchLinger(new Duration(1, TimeUnit.MINUTES)));
+
+        for (int i = 0; i < 6; i++) {
+            processor.put(entryOf("key" + i));
+        }
+
+        // batches are sent as soon as they are full, not when the linger time passes
+        assertEquals(batches.poll(10, TimeUnit.SECONDS).size(), 3);
+        int received = 3;
+        while (received < 6) {
+            received += batches.poll(10, TimeUnit.SECONDS).size();
+        }
+        assertEquals(received, 6);
+    }
+
+    @Test
+    public void testByteTargetEndsBatch()
+            throws Exception
+    {
+        long entrySize = "key0".length() + "value".length();
+        processor = newProcessor(new StoreConfig()
+                .setMaxBatchSize(100)
+                .setBatchLinger(new Duration(100, TimeUnit.MILLISECONDS))
+                .setTargetBatchBytes(DataSize.ofBytes(2 * entrySize)));
+
+        for (int i = 0; i < 4; i++) {
+            processor.put(entryOf("key" + i));
+        }
+
+        assertEquals(batches.poll(10, TimeUnit.SECONDS).size(), 2);
+        assertEquals(batches.poll(10, TimeUnit.SECONDS).size(), 2);
+        assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSlowBatchesShrinkLimit()
+            throws Exception
+    {
+        BlockingQueue<Integer> limits = new LinkedBlockingQueue<>();
+        processor = newProcessor(new StoreConfig()
+                .setMaxBatchSize(8)
+                .setMaxInFlightBatches(1)
+                .setBatchLinger(new Duration(0, TimeUnit.MILLISECONDS))
+                .setBatchLatencyTarget(new Duration(1, TimeUnit.MILLISECONDS)), entries -> {
+                    limits.add(processor.getBatchSizeLimit());
+                    SettableFuture<Void> future = SettableFuture.create();
+                    senderExecutor.schedule(() -> future.set(null), 20, TimeUnit.MILLISECONDS);
+                    return future;
+                });
+
+        for (int expectedLimit : new int[] {8, 4, 2, 1, 1}) {
+            processor.put(entryOf("key"));
+            assertEquals(limits.poll(10, TimeUnit.SECONDS).intValue(), expectedLimit);
+        }
+    }
+
+    @Test
+    public void testInFlightLimit()
+            throws Exception
+    {
+        BlockingQueue<SettableFuture<Void>> inFlight = new LinkedBlockingQueue<>();
+        processor = newProcessor(new StoreConfig()
+                .setMaxBatchSize(1)
+                .setMaxInFlightBatches(2)
+                .setBatchLinger(new Duration(0, TimeUnit.MILLISECONDS)), entries -> {
+                    SettableFuture<Void> future = SettableFuture.create();
+                    inFlight.add(future);
+                    return future;
+                });
+
+        for (int i = 0; i < 5; i++) {
+            processor.put(entryOf("key" + i));
+        }
+
+        SettableFuture<Void> first = inFlight.poll(10, TimeUnit.SECONDS);
+        SettableFuture<Void> second = inFlight.poll(10, TimeUnit.SECONDS);
+        // the remaining entries wait in the queue until a batch completes
+        assertNull(inFlight.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(processor.getInFlightBatches(), 2);
+        assertEquals(processor.getQueueSize(), 3);
+
+        first.set(null);
+        SettableFuture<Void> third = inFlight.poll(10, TimeUnit.SECONDS);
+        assertNull(inFlight.poll(100, TimeUnit.MILLISECONDS));
+
+        // failed batches also free their slot
+        second.setException(new RuntimeException("test"));
+        third.set(null);
+        inFlight.poll(10, TimeUnit.SECONDS).set(null);
+        inFlight.poll(10, TimeUnit.SECONDS).set(null);
+        // the entry of the failed batch is retried last
+        inFlight.poll(10, TimeUnit.SECONDS).set(null);
+
+        // a batch can complete before the processor has added its listener
+        waitForProcessedEntries(5);
+        assertEquals(processor.getProcessedEntries(), 5);
+        assertEquals(processor.getErrors(), 1);
+        assertEquals(processor.getRetriedEntries(), 1);
+        assertEquals(processor.getInFlightBatches(), 0);
+    }
+
+    @Test
+    public void testFailedBatchIsRetried()
+            throws Exception
+    {
+        BlockingQueue<SettableFuture<Void>> inFlight = new LinkedBlockingQueue<>();
+        processor = newProcessor(new StoreConfig()
+                .setMaxInFlightBatches(1)
+                .setBatchLinger(new Duration(100, TimeUnit.MILLISECONDS))
+                .setRetryMinBackoff(new Duration(10, TimeUnit.MILLISECONDS)), entries -> {
+                    batches.add(new ArrayList<>(entries));
+                    SettableFuture<Void> future = SettableFuture.create();
+                    inFlight.add(future);
+                    return future;
+                });
+
+        processor.put(entryOf("apple", 1));
+        processor.put(entryOf("banana", 1));
+        assertEquals(batches.poll(10, TimeUnit.SECONDS).size(), 2);
+
+        // a newer version queued while the batch is in flight is sent instead of the failed one
+        Entry newerApple = entryOf("apple", 2);
+        processor.put(newerApple);
+        inFlight.poll(10, TimeUnit.SECONDS).setException(new RuntimeException("test"));
+
+        List<Entry> retried = batches.poll(10, TimeUnit.SECONDS);
+        assertEquals(retried.size(), 2);
+        assertTrue(retried.contains(newerApple));
+        assertTrue(retried.contains(entryOf("banana", 1)));
+        inFlight.poll(10, TimeUnit.SECONDS).set(null);
+
+        waitForProcessedEntries(2);
+        assertEquals(processor.getErrors(), 1);
+        // only banana is queued again
+        assertEquals(processor.getRetriedEntries(), 1);
+        assertEquals(processor.getCoalescedEntries(), 1);
+        assertEquals(processor.getDroppedEntries(), 0);
+        assertEquals(processor.getProcessedEntries(), 2);
+        assertEquals(processor.getBreakerState(), "CLOSED");
+    }
+
+    @Test
+    public void testBreakerStopsSending()
+            throws Exception
+    {
+        processor = newProcessor(new StoreConfig()
+                .setBatchLinger(new Duration(0, TimeUnit.MILLISECONDS))
+                .setRetryMinBackoff(new Duration(1, TimeUnit.MILLISECONDS))
+                .setRetryMaxBackoff(new Duration(1, TimeUnit.MILLISECONDS))
+                .setBreakerFailureThreshold(3)
+                .setBreakerOpenTime(new Duration(1, TimeUnit.MINUTES)), entries -> {
+                    batches.add(new ArrayList<>(entries));
+                    return immediateFailedFuture(new RuntimeException("test"));
+                });
+
+        processor.put(entryOf("apple", 1));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(batches.poll(10, TimeUnit.SECONDS).size(), 1);
+        }
+
+        // the entry stays queued while the breaker is open
+        assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(processor.getBreakerState(), "OPEN");
+        assertEquals(processor.getBreakerOpened(), 1);
+        assertEquals(processor.getQueueSize(), 1);
+        assertEquals(processor.getErrors(), 3);
+    }
+
+    @Test
+    public void testRetriesDoNotEvictQueuedEntries()
+            throws Exception
+    {
+        BlockingQueue<SettableFuture<Void>> inFlight = new LinkedBlockingQueue<>();
+        processor = newProcessor(new StoreConfig()
+                .setQueueSize(2)
+                .setMaxInFlightBatches(1)
+                .setBatchLinger(new Duration(100, TimeUnit.MILLISECONDS))
+                .setRetryMinBackoff(new Duration(10, TimeUnit.MILLISECONDS)), entries -> {
+                    batches.add(new ArrayList<>(entries));
+                    SettableFuture<Void> future = SettableFuture.create();
+                    inFlight.add(future);
+                    return future;
+                });
+
+        processor.put(entryOf("apple"));
+        processor.put(entryOf("banana"));
+        assertEquals(batches.poll(10, TimeUnit.SECONDS).size(), 2);
+
+        // the queue fills up while the batch is in flight
+        Entry cherry = entryOf("cherry");
+        Entry date = entryOf("date");
+        processor.put(cherry);
+        processor.put(date);
+        inFlight.poll(10, TimeUnit.SECONDS).setException(new RuntimeException("test"));
+
+        assertEquals(batches.poll(10, TimeUnit.SECONDS), ImmutableList.of(cherry, date));
+        inFlight.poll(10, TimeUnit.SECONDS).set(null);
+
+        waitForProcessedEntries(2);
+        assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(processor.getRetriedEntries(), 0);
+        assertEquals(processor.getDroppedRetries(), 2);
+        assertEquals(processor.getDroppedEntries(), 0);
+    }
+
+    private void waitForProcessedEntries(long expected)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (processor.getProcessedEntries() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private BatchProcessor<Entry> newProcessor(StoreConfig config)
+    {
+        return newProcessor(config, entries -> {
+            batches.add(new ArrayList<>(entries));
+            return immediateVoidFuture();
+        });
+    }
+
+    private BatchProcessor<Entry> newProcessor(StoreConfig config, BatchProcessor.BatchHandler<Entry> handler)
+    {
+        ConflictResolver resolver = new ConflictResolver();
+        BatchProcessor<Entry> processor = new BatchProcessor<>(
+                handler,
+                config,
+                senderExecutor,
+                entry -> ByteBuffer.wrap(entry.getKey()),
+                resolver::resolve,
+                entry -> entry.getKey().length + entry.getValue().length);
+        processor.start();
+        return processor;
+    }
+
+    private static Entry entryOf(String key)
+    {
+        return entryOf(key, 1);
+    }
+
+    private static Entry entryOf(String key, long version)
+    {
+        return new Entry(key.getBytes(UTF_8), "value".getBytes(UTF_8), new Version(version), 0, null);
+    }
+}
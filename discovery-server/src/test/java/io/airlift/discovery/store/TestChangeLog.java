@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestChangeLog
+{
+    @Test
+    public void testChangesSince()
+    {
+        ChangeLog log = new ChangeLog(10);
+        assertEquals(log.getLastSequence(), 0);
+        assertEquals(log.getChangesSince(0).getKeys().size(), 0);
+
+        log.onChanges(ImmutableList.of(changeOf("blue"), changeOf("red")));
+        log.onChanges(ImmutableList.of(changeOf("blue"), changeOf("green")));
+        assertEquals(log.getLastSequence(), 4);
+
+        ChangeLog.Changes changes = log.getChangesSince(0);
+        assertEquals(changes.getSequence(), 4);
+        assertEquals(keysOf(changes), ImmutableList.of("blue", "red", "green"));
+
+        changes = log.getChangesSince(2);
+        assertEquals(changes.getSequence(), 4);
+        assertEquals(keysOf(changes), ImmutableList.of("blue", "green"));
+
+        assertEquals(log.getChangesSince(4).getKeys().size(), 0);
+
+        // positions ahead of the log are invalid
+        assertNull(log.getChangesSince(5));
+    }
+
+    @Test
+    public void testTruncated()
+    {
+        ChangeLog log = new ChangeLog(3);
+        for (int i = 0; i < 5; i++) {
+            log.onChanges(ImmutableList.of(changeOf("key" + i)));
+        }
+
+        assertNull(log.getChangesSince(1));
+        assertEquals(keysOf(log.getChangesSince(2)), ImmutableList.of("key2", "key3", "key4"));
+    }
+
+    @Test
+    public void testLogIdsAreUnique()
+    {
+        assertNotEquals(new ChangeLog(1).getLogId(), new ChangeLog(1).getLogId());
+    }
+
+    private static List<String> keysOf(ChangeLog.Changes changes)
+    {
+        return changes.getKeys().stream()
+                .map(key -> new String(key, UTF_8))
+                .toList();
+    }
+
+    private static StoreChange changeOf(String key)
+    {
+        byte[] bytes = key.getBytes(UTF_8);
+        return new StoreChange(bytes, null, new Entry(bytes, "value".getBytes(UTF_8), new Version(1), 0, null));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.base.Ticker;
+import io.airlift.units.Duration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.discovery.store.CircuitBreaker.State.CLOSED;
+import static io.airlift.discovery.store.CircuitBreaker.State.HALF_OPEN;
+import static io.airlift.discovery.store.CircuitBreaker.State.OPEN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestCircuitBreaker
+{
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private FakeTicker ticker;
+    private CircuitBreaker breaker;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        ticker = new FakeTicker();
+        breaker = new CircuitBreaker(
+                3,
+                new Duration(100, TimeUnit.MILLISECONDS),
+                new Duration(1, TimeUnit.SECONDS),
+                new Duration(10, TimeUnit.SECONDS),
+                ticker);
+    }
+
+    @Test
+    public void testBackoff()
+    {
+        assertEquals(breaker.getDelayNanos(), 0);
+
+        breaker.onFailure();
+        assertBetween(breaker.getDelayNanos(), TimeUnit.MILLISECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(100));
+
+        breaker.onFailure();
+        assertBetween(breaker.getDelayNanos(), TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(breaker.getState(), CLOSED);
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(breaker.getDelayNanos(), 0);
+
+        breaker.onSuccess();
+        assertEquals(breaker.getConsecutiveFailures(), 0);
+        assertEquals(breaker.getDelayNanos(), 0);
+    }
+
+    @Test
+    public void testBackoffIsCapped()
+    {
+        breaker = new CircuitBreaker(
+                100,
+                new Duration(100, TimeUnit.MILLISECONDS),
+                new Duration(1, TimeUnit.SECONDS),
+                new Duration(10, TimeUnit.SECONDS),
+                ticker);
+
+        for (int i = 0; i < 50; i++) {
+            breaker.onFailure();
+        }
+        assertBetween(breaker.getDelayNanos(), TimeUnit.MILLISECONDS.toNanos(500), TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures()
+    {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertEquals(breaker.getState(), OPEN);
+        assertEquals(breaker.getOpened(), 1);
+        assertEquals(breaker.getDelayNanos(), OPEN_NANOS);
+
+        ticker.advance(OPEN_NANOS / 2);
+        assertEquals(breaker.getDelayNanos(), OPEN_NANOS / 2);
+    }
+
+    @Test
+    public void testSingleProbe()
+    {
+        openBreaker();
+        ticker.advance(OPEN_NANOS);
+
+        // only the first caller sends a probe
+        assertEquals(breaker.getDelayNanos(), 0);
+        assertEquals(breaker.getState(), HALF_OPEN);
+        assertEquals(breaker.getDelayNanos(), OPEN_NANOS);
+
+        // a failed probe opens the breaker again
+        breaker.onFailure();
+        assertEquals(breaker.getState(), OPEN);
+        assertEquals(breaker.getOpened(), 2);
+        assertEquals(breaker.getDelayNanos(), OPEN_NANOS);
+
+        // a successful probe closes it
+        ticker.advance(OPEN_NANOS);
+        assertEquals(breaker.getDelayNanos(), 0);
+        breaker.onSuccess();
+        assertEquals(breaker.getState(), CLOSED);
+        assertEquals(breaker.getDelayNanos(), 0);
+        assertEquals(breaker.getDelayNanos(), 0);
+    }
+
+    private void openBreaker()
+    {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(breaker.getState(), OPEN);
+    }
+
+    private static void assertBetween(long value, long min, long max)
+    {
+        assertTrue(value >= min && value <= max, value + " is not between " + min + " and " + max);
+    }
+
+    private static class FakeTicker
+            extends Ticker
+    {
+        private long nanos;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        public void advance(long nanos)
+        {
+            this.nanos += nanos;
+        }
+    }
+}
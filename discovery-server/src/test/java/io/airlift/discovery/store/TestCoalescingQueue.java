@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class TestCoalescingQueue
+{
+    @Test
+    public void testCoalescesByKey()
+    {
+        CoalescingQueue<Entry> queue = newQueue(10);
+
+        Entry blue1 = entryOf("blue", 1);
+        Entry red1 = entryOf("red", 1);
+        Entry blue3 = entryOf("blue", 3);
+        queue.offer(blue1);
+        queue.offer(red1);
+        queue.offer(blue3);
+        // older versions do not replace newer ones
+        queue.offer(entryOf("blue", 2));
+
+        assertEquals(queue.size(), 2);
+        assertEquals(queue.getCoalesced(), 2);
+        assertEquals(queue.getDropped(), 0);
+
+        // the merged entry keeps the position of the first entry for its key
+        assertSame(queue.poll(), blue3);
+        assertSame(queue.poll(), red1);
+    }
+
+    @Test
+    public void testDropsOldestWhenFull()
+    {
+        CoalescingQueue<Entry> queue = newQueue(2);
+
+        Entry red = entryOf("red", 1);
+        Entry green = entryOf("green", 1);
+        queue.offer(entryOf("blue", 1));
+        queue.offer(red);
+        queue.offer(green);
+        // an update of a queued key does not drop anything
+        queue.offer(entryOf("red", 2));
+
+        assertEquals(queue.getDropped(), 1);
+        List<Entry> drained = new ArrayList<>();
+        assertEquals(queue.drainTo(drained, 10), 2);
+        assertEquals(drained, ImmutableList.of(entryOf("red", 2), green));
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testRetryDoesNotReplaceOrEvict()
+    {
+        CoalescingQueue<Entry> queue = newQueue(2);
+
+        Entry blue2 = entryOf("blue", 2);
+        Entry red = entryOf("red", 1);
+        queue.offer(blue2);
+
+        // a newer version is queued, so the retried one is discarded
+        assertEquals(queue.offerRetry(entryOf("blue", 1)), false);
+        assertEquals(queue.offerRetry(red), true);
+
+        // a full queue discards the retried entry instead of the oldest one
+        assertEquals(queue.offerRetry(entryOf("green", 1)), false);
+
+        assertEquals(queue.getCoalesced(), 1);
+        assertEquals(queue.getDropped(), 0);
+        assertEquals(queue.getDroppedRetries(), 1);
+        List<Entry> drained = new ArrayList<>();
+        assertEquals(queue.drainTo(drained, 10), 2);
+        assertEquals(drained, ImmutableList.of(blue2, red));
+    }
+
+    @Test
+    public void testConcurrentOffersKeepNewestVersion()
+            throws Exception
+    {
+        CoalescingQueue<Entry> queue = newQueue(16);
+
+        int threads = 8;
+        int versions = 10_000;
+        ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+                    for (int version = offset; version < versions; version += threads) {
+                        queue.offer(entryOf(version % 2 == 0 ? "blue" : "red", version));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        // every offer after the first one for a key is merged, and no merge is lost
+        assertEquals(queue.getCoalesced(), versions - 2);
+        assertEquals(queue.getDropped(), 0);
+        List<Entry> drained = new ArrayList<>();
+        assertEquals(queue.drainTo(drained, 10), 2);
+        assertEquals(ImmutableSet.copyOf(drained), ImmutableSet.of(entryOf("blue", versions - 2), entryOf("red", versions - 1)));
+    }
+
+    private static CoalescingQueue<Entry> newQueue(int capacity)
+    {
+        ConflictResolver resolver = new ConflictResolver();
+        return new CoalescingQueue<>(capacity, entry -> ByteBuffer.wrap(entry.getKey()), resolver::resolve);
+    }
+
+    private static Entry entryOf(String key, long version)
+    {
+        return new Entry(key.getBytes(UTF_8), "value".getBytes(UTF_8), new Version(version), 0, null);
+    }
+}
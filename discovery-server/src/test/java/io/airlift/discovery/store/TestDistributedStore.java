@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.Iterables;
+import io.airlift.units.Duration;
+import org.iq80.leveldb.util.FileUtils;
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.nio.file.Files.createTempDirectory;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestDistributedStore
+{
+    private final AtomicLong now = new AtomicLong();
+    private LocalStore localStore;
+    private DistributedStore store;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        now.set(1_000_000);
+        localStore = new InMemoryStore(new ConflictResolver());
+        store = new DistributedStore("test", localStore, entry -> {}, new StoreConfig(), () -> new DateTime(now.get()));
+    }
+
+    @Test
+    public void testListener()
+    {
+        List<StoreChange> changes = new ArrayList<>();
+        store.addListener(changes::addAll, directExecutor());
+
+        byte[] key = "blue".getBytes(UTF_8);
+        store.put(key, "apple".getBytes(UTF_8));
+        assertEquals(changes.size(), 1);
+        assertNull(changes.get(0).getOldEntry());
+        assertEquals(changes.get(0).getNewEntry().getValue(), "apple".getBytes(UTF_8));
+
+        now.incrementAndGet();
+        store.delete(key);
+        assertEquals(changes.size(), 2);
+        assertEquals(changes.get(1).getOldEntry().getValue(), "apple".getBytes(UTF_8));
+        assertNull(changes.get(1).getNewEntry().getValue());
+    }
+
+    @Test
+    public void testListenerBatches()
+    {
+        List<Runnable> tasks = new ArrayList<>();
+        Executor executor = tasks::add;
+
+        List<List<StoreChange>> batches = new ArrayList<>();
+        store.addListener(batches::add, executor);
+
+        store.put("blue".getBytes(UTF_8), "apple".getBytes(UTF_8));
+        store.put("red".getBytes(UTF_8), "cherry".getBytes(UTF_8));
+        store.put("green".getBytes(UTF_8), "lime".getBytes(UTF_8));
+
+        // a single delivery is scheduled for all pending changes
+        assertEquals(tasks.size(), 1);
+        tasks.remove(0).run();
+
+        assertEquals(batches.size(), 1);
+        assertEquals(batches.get(0).size(), 3);
+        assertEquals(batches.get(0).get(0).getKey(), "blue".getBytes(UTF_8));
+        assertEquals(batches.get(0).get(2).getKey(), "green".getBytes(UTF_8));
+        assertEquals(tasks.size(), 0);
+    }
+
+    @Test
+    public void testExpiresAtDeadline()
+    {
+        byte[] key = "blue".getBytes(UTF_8);
+        store.put(key, "apple".getBytes(UTF_8), new Duration(10, TimeUnit.SECONDS));
+        assertEquals(store.getPendingExpirations(), 1);
+
+        now.addAndGet(10_000);
+        assertEquals(store.get(key), "apple".getBytes(UTF_8));
+        assertEquals(Iterables.size(store.getAll()), 1);
+
+        now.incrementAndGet();
+        assertNull(store.get(key));
+        assertEquals(Iterables.size(store.getAll()), 0);
+        assertNull(localStore.get(key));
+        assertEquals(store.getPendingExpirations(), 0);
+    }
+
+    @Test
+    public void testReplacedEntryDoesNotExpireEarly()
+    {
+        byte[] key = "blue".getBytes(UTF_8);
+        store.put(key, "apple".getBytes(UTF_8), new Duration(10, TimeUnit.SECONDS));
+
+        now.addAndGet(5_000);
+        store.put(key, "banana".getBytes(UTF_8), new Duration(10, TimeUnit.SECONDS));
+
+        // the deadline of the first version passes
+        now.addAndGet(6_000);
+        assertEquals(store.get(key), "banana".getBytes(UTF_8));
+        assertEquals(store.getPendingExpirations(), 1);
+
+        now.addAndGet(5_000);
+        assertNull(store.get(key));
+    }
+
+    @Test
+    public void testReplacedPersistentEntryDoesNotExpireEarly()
+            throws Exception
+    {
+        File tempDir = createTempDirectory(null).toFile();
+        try {
+            localStore = new PersistentStore(new PersistentStoreConfig().setLocation(tempDir));
+            store = new DistributedStore("test", localStore, entry -> {}, new StoreConfig(), () -> new DateTime(now.get()));
+
+            byte[] key = "blue".getBytes(UTF_8);
+            store.put(key, "apple".getBytes(UTF_8), new Duration(10, TimeUnit.SECONDS));
+
+            now.addAndGet(5_000);
+            store.put(key, "banana".getBytes(UTF_8), new Duration(10, TimeUnit.SECONDS));
+
+            // the deadline of the first version passes
+            now.addAndGet(6_000);
+            assertEquals(store.get(key), "banana".getBytes(UTF_8));
+            assertEquals(localStore.get(key).getValue(), "banana".getBytes(UTF_8));
+
+            now.addAndGet(5_000);
+            assertNull(store.get(key));
+            assertNull(localStore.get(key));
+        }
+        finally {
+            FileUtils.deleteRecursively(tempDir);
+        }
+    }
+
+    @Test
+    public void testRemovesTombstones()
+    {
+        byte[] key = "blue".getBytes(UTF_8);
+        store.put(key, "apple".getBytes(UTF_8));
+        now.incrementAndGet();
+        store.delete(key);
+        assertNull(localStore.get(key).getValue());
+
+        now.addAndGet(new StoreConfig().getTombstoneMaxAge().toMillis() + 1);
+        store.removeExpiredEntries();
+        assertNull(localStore.get(key));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+
+public class TestEncodedEntry
+{
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+
+    private static final Entry APPLE = new Entry("apple".getBytes(UTF_8), "{\"http\":\"http://10.0.0.1\"}".getBytes(UTF_8), new Version(1), 1000, null);
+    private static final Entry BANANA = new Entry("banana".getBytes(UTF_8), "{\"http\":\"http://10.0.0.2\"}".getBytes(UTF_8), new Version(2), 2000, 60_000L);
+    private static final Entry TOMBSTONE = new Entry("cherry".getBytes(UTF_8), null, new Version(3), 3000, null);
+
+    @Test
+    public void testSmileArray()
+            throws IOException
+    {
+        List<EncodedEntry> encoded = ImmutableList.of(EncodedEntry.encode(APPLE), EncodedEntry.encode(BANANA), EncodedEntry.encode(TOMBSTONE));
+
+        assertEquals(decode(EncodedEntry.toSmileArray(encoded)), ImmutableList.of(APPLE, BANANA, TOMBSTONE));
+    }
+
+    @Test
+    public void testEncodedEntriesCanBeReordered()
+            throws IOException
+    {
+        EncodedEntry apple = EncodedEntry.encode(APPLE);
+        EncodedEntry banana = EncodedEntry.encode(BANANA);
+
+        // the same encoded entries are shared by the batches of different peers
+        assertEquals(decode(EncodedEntry.toSmileArray(ImmutableList.of(banana, apple))), ImmutableList.of(BANANA, APPLE));
+        assertEquals(decode(EncodedEntry.toSmileArray(ImmutableList.of(apple))), ImmutableList.of(APPLE));
+        assertEquals(decode(EncodedEntry.toSmileArray(ImmutableList.of())), ImmutableList.of());
+    }
+
+    private static List<Entry> decode(byte[] smile)
+            throws IOException
+    {
+        return SMILE_MAPPER.readValue(smile, new TypeReference<List<Entry>>() {});
+    }
+}
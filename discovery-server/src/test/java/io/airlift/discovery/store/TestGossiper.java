@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestGossiper
+{
+    private static final int FANOUT = 3;
+    private static final int RUMOR_ROUNDS = 4;
+    private static final int MAX_RUMORS = 1000;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long TARGET_BATCH_BYTES = 1024 * 1024;
+
+    @Test
+    public void testRumorLifetime()
+    {
+        List<String> sent = new ArrayList<>();
+        Gossiper<String> gossiper = newGossiper(MAX_RUMORS, MAX_BATCH_SIZE, TARGET_BATCH_BYTES, (peer, entries) -> sent.add(peer));
+
+        Entry apple = entryOf("apple", 1);
+        gossiper.spread(apple);
+        for (int round = 0; round < RUMOR_ROUNDS - 1; round++) {
+            assertEquals(gossiper.runRound(), 1);
+            // the same version does not make the rumor hot again
+            gossiper.spread(apple);
+        }
+        assertEquals(gossiper.runRound(), 1);
+        assertEquals(gossiper.getHotRumors(), 0);
+        assertEquals(gossiper.runRound(), 0);
+
+        // a newer version is a new rumor
+        gossiper.onChanges(ImmutableList.of(new StoreChange(apple.getKey(), apple, entryOf("apple", 2))));
+        assertEquals(gossiper.getHotRumors(), 1);
+        assertEquals(gossiper.runRound(), 1);
+
+        assertEquals(sent.size(), RUMOR_ROUNDS + 1);
+        assertEquals(gossiper.getMessagesSent(), RUMOR_ROUNDS + 1);
+    }
+
+    @Test
+    public void testRumorsAreBounded()
+    {
+        Gossiper<String> gossiper = newGossiper(4, MAX_BATCH_SIZE, TARGET_BATCH_BYTES, (peer, entries) -> {});
+
+        for (int i = 0; i < 6; i++) {
+            gossiper.spread(entryOf("key" + i, 1));
+        }
+        // the oldest rumors are dropped
+        assertEquals(gossiper.getHotRumors(), 4);
+        assertEquals(gossiper.getDroppedRumors(), 2);
+
+        // a new rumor pushes out the oldest one, which was already sent in a round
+        gossiper.runRound();
+        gossiper.spread(entryOf("key6", 1));
+        assertEquals(gossiper.getHotRumors(), 4);
+        assertEquals(gossiper.getDroppedRumors(), 3);
+    }
+
+    @Test
+    public void testRoundIsSplitIntoBatches()
+    {
+        List<List<EncodedEntry>> batches = new ArrayList<>();
+        Gossiper<String> gossiper = newGossiper(MAX_RUMORS, 3, TARGET_BATCH_BYTES, (peer, entries) -> batches.add(entries));
+        for (int i = 0; i < 7; i++) {
+            gossiper.spread(entryOf("key" + i, 1));
+        }
+        assertEquals(gossiper.runRound(), 3);
+        assertEquals(batches.stream().map(List::size).collect(toImmutableList()), ImmutableList.of(3, 3, 1));
+        assertEquals(gossiper.getMessagesSent(), 3);
+        assertEquals(gossiper.getEntriesSent(), 7);
+
+        // a batch is closed once it reaches the byte target
+        batches.clear();
+        long entrySize = EncodedEntry.encode(entryOf("key0", 1)).getEncodedSize();
+        gossiper = newGossiper(MAX_RUMORS, MAX_BATCH_SIZE, 2 * entrySize, (peer, entries) -> batches.add(entries));
+        for (int i = 0; i < 5; i++) {
+            gossiper.spread(entryOf("key" + i, 1));
+        }
+        assertEquals(gossiper.runRound(), 3);
+        assertEquals(batches.stream().map(List::size).collect(toImmutableList()), ImmutableList.of(2, 2, 1));
+    }
+
+    @Test
+    public void testConvergence()
+    {
+        for (int nodes : new int[] {3, 10, 30, 100}) {
+            Cluster cluster = new Cluster(nodes);
+            Entry entry = entryOf("apple", 1);
+            cluster.write(0, entry);
+
+            int rounds = cluster.runUntilConverged(ImmutableList.of(entry));
+            int maxRounds = 2 * (32 - Integer.numberOfLeadingZeros(nodes - 1)) + 2;
+            assertTrue(rounds <= maxRounds, nodes + " nodes converged in " + rounds + " rounds");
+
+            // every node spreads the entry for the lifetime of the rumor, no matter how large the cluster is
+            cluster.runUntilQuiet();
+            for (int node = 0; node < nodes; node++) {
+                assertTrue(cluster.getMessagesSent(node) <= FANOUT * RUMOR_ROUNDS, "node " + node + " of " + nodes + " sent " + cluster.getMessagesSent(node) + " messages");
+            }
+            assertTrue(cluster.getMaxMessagesPerRound() <= FANOUT);
+        }
+    }
+
+    @Test
+    public void testConcurrentWrites()
+    {
+        Cluster cluster = new Cluster(50);
+        ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        for (int i = 0; i < 20; i++) {
+            Entry entry = entryOf("key" + i, 1);
+            cluster.write((i * 7) % 50, entry);
+            entries.add(entry);
+        }
+
+        int rounds = cluster.runUntilConverged(entries.build());
+        assertTrue(rounds <= 14, "converged in " + rounds + " rounds");
+
+        // rumors are batched, so a node never sends more than the fanout per round
+        cluster.runUntilQuiet();
+        assertTrue(cluster.getMaxMessagesPerRound() <= FANOUT);
+    }
+
+    private static Gossiper<String> newGossiper(int maxRumors, int maxBatchSize, long targetBatchBytes, BiConsumer<String, List<EncodedEntry>> sender)
+    {
+        return new Gossiper<>(FANOUT, RUMOR_ROUNDS, maxRumors, maxBatchSize, targetBatchBytes, () -> ImmutableList.of("peer"), sender, new Random(0));
+    }
+
+    private static Entry entryOf(String key, long version)
+    {
+        return new Entry(key.getBytes(UTF_8), "value".getBytes(UTF_8), new Version(version), 0, null);
+    }
+
+    /**
+     * In-process nodes that gossip in synchronous rounds. Messages sent in a round are
+     * delivered at the end of the round.
+     */
+    private static class Cluster
+    {
+        private static final int MAX_ROUNDS = 100;
+
+        private final List<LocalStore> stores = new ArrayList<>();
+        private final List<Gossiper<Integer>> gossipers = new ArrayList<>();
+        private final List<Delivery> pending = new ArrayList<>();
+        private final long[] messagesSent;
+        private int maxMessagesPerRound;
+
+        private Cluster(int size)
+        {
+            messagesSent = new long[size];
+            for (int node = 0; node < size; node++) {
+                int self = node;
+                List<Integer> peers = IntStream.range(0, size)
+                        .filter(peer -> peer != self)
+                        .boxed()
+                        .collect(toImmutableList());
+
+                LocalStore store = new InMemoryStore(new ConflictResolver());
+                Gossiper<Integer> gossiper = new Gossiper<>(FANOUT, RUMOR_ROUNDS, MAX_RUMORS, MAX_BATCH_SIZE, TARGET_BATCH_BYTES, () -> peers, (peer, entries) -> {
+                    pending.add(new Delivery(peer, entries));
+                    messagesSent[self]++;
+                }, new Random(node));
+                store.addListener(gossiper::onChanges);
+
+                stores.add(store);
+                gossipers.add(gossiper);
+            }
+        }
+
+        public void write(int node, Entry entry)
+        {
+            stores.get(node).put(entry);
+        }
+
+        public int runUntilConverged(List<Entry> entries)
+        {
+            int rounds = 0;
+            while (!hasConverged(entries)) {
+                assertTrue(rounds < MAX_ROUNDS, "did not converge");
+                runRound();
+                rounds++;
+            }
+            return rounds;
+        }
+
+        public void runUntilQuiet()
+        {
+            for (int rounds = 0; gossipers.stream().anyMatch(gossiper -> gossiper.getHotRumors() > 0); rounds++) {
+                assertTrue(rounds < MAX_ROUNDS, "rumors did not die out");
+                runRound();
+            }
+        }
+
+        private void runRound()
+        {
+            for (Gossiper<Integer> gossiper : gossipers) {
+                maxMessagesPerRound = Math.max(maxMessagesPerRound, gossiper.runRound());
+            }
+
+            List<Delivery> deliveries = ImmutableList.copyOf(pending);
+            pending.clear();
+            for (Delivery delivery : deliveries) {
+                for (EncodedEntry entry : delivery.getEntries()) {
+                    stores.get(delivery.getNode()).put(entry.getEntry());
+                }
+            }
+        }
+
+        private boolean hasConverged(List<Entry> entries)
+        {
+            for (LocalStore store : stores) {
+                for (Entry entry : entries) {
+                    if (!entry.equals(store.get(entry.getKey()))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        public long getMessagesSent(int node)
+        {
+            return messagesSent[node];
+        }
+
+        public int getMaxMessagesPerRound()
+        {
+            return maxMessagesPerRound;
+        }
+    }
+
+    private static class Delivery
+    {
+        private final int node;
+        private final List<EncodedEntry> entries;
+
+        private Delivery(int node, List<EncodedEntry> entries)
+        {
+            this.node = node;
+            this.entries = entries;
+        }
+
+        public int getNode()
+        {
+            return node;
+        }
+
+        public List<EncodedEntry> getEntries()
+        {
+            return entries;
+        }
+    }
+}
@@ -15,12 +15,17 @@
  */
 package io.airlift.discovery.store;
 
+import com.google.common.collect.ImmutableList;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.google.common.base.Charsets.UTF_8;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 
 public class TestInMemoryStore
 {
@@ -78,6 +83,57 @@ public class TestInMemoryStore
         assertEquals(store.get("blue".getBytes(UTF_8)), entry2);
     }
 
+    @Test
+    public void testListener()
+    {
+        List<StoreChange> changes = new ArrayList<>();
+        store.addListener(changes::addAll);
+
+        Entry entry2 = entryOf("blue", "apple", 2, 0);
+        store.put(entry2);
+        assertEquals(changes.size(), 1);
+        assertNull(changes.get(0).getOldEntry());
+        assertSame(changes.get(0).getNewEntry(), entry2);
+
+        // conflicts resolved in favor of the existing entry are not changes
+        store.put(entryOf("blue", "banana", 1, 0));
+        assertEquals(changes.size(), 1);
+
+        Entry entry3 = entryOf("blue", "cherry", 3, 0);
+        store.put(entry3);
+        assertEquals(changes.size(), 2);
+        assertSame(changes.get(1).getOldEntry(), entry2);
+        assertSame(changes.get(1).getNewEntry(), entry3);
+
+        store.delete("blue".getBytes(UTF_8), entry3.getVersion());
+        assertEquals(changes.size(), 3);
+        assertSame(changes.get(2).getOldEntry(), entry3);
+        assertNull(changes.get(2).getNewEntry());
+    }
+
+    @Test
+    public void testScan()
+    {
+        Entry cherry = entryOf("cherry", "red", 1, 0);
+        Entry apple = entryOf("apple", "green", 1, 0);
+        Entry banana = entryOf("banana", "yellow", 1, 0);
+        store.put(cherry);
+        store.put(apple);
+        store.put(banana);
+
+        assertEquals(scan(null), ImmutableList.of(apple, banana, cherry));
+        assertEquals(scan("apple"), ImmutableList.of(banana, cherry));
+        assertEquals(scan("b"), ImmutableList.of(banana, cherry));
+        assertEquals(scan("cherry"), ImmutableList.of());
+    }
+
+    private List<Entry> scan(String afterKey)
+    {
+        try (EntryIterator entries = store.scan(afterKey == null ? null : afterKey.getBytes(UTF_8))) {
+            return ImmutableList.copyOf(entries);
+        }
+    }
+
     private static Entry entryOf(String key, String value, long version, long timestamp)
     {
         return new Entry(key.getBytes(UTF_8), value.getBytes(UTF_8), new Version(version), timestamp, null);
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestMerkleTree
+{
+    @Test
+    public void testSameEntriesHaveSameHashes()
+    {
+        MerkleTree first = new MerkleTree();
+        first.addAll(ImmutableList.of(entryOf("blue", 1), entryOf("red", 2), entryOf("green", 3)));
+
+        // order does not matter
+        MerkleTree second = new MerkleTree();
+        second.addAll(ImmutableList.of(entryOf("green", 3), entryOf("blue", 1), entryOf("red", 2)));
+
+        assertEquals(first.getRootHash(), second.getRootHash());
+        assertEquals(first.getLevel(MerkleTree.DEPTH), second.getLevel(MerkleTree.DEPTH));
+    }
+
+    @Test
+    public void testDifferentVersionChangesOnlyItsBucket()
+    {
+        MerkleTree first = new MerkleTree();
+        first.addAll(ImmutableList.of(entryOf("blue", 1), entryOf("red", 2)));
+
+        MerkleTree second = new MerkleTree();
+        second.addAll(ImmutableList.of(entryOf("blue", 1), entryOf("red", 3)));
+
+        assertNotEquals(first.getRootHash(), second.getRootHash());
+
+        long[] firstLeaves = first.getLevel(MerkleTree.DEPTH);
+        long[] secondLeaves = second.getLevel(MerkleTree.DEPTH);
+        int bucket = MerkleTree.bucketOf("red".getBytes(UTF_8));
+        for (int i = 0; i < MerkleTree.LEAF_COUNT; i++) {
+            assertEquals(firstLeaves[i] != secondLeaves[i], i == bucket);
+        }
+        assertTrue(second.getKeys(bucket).stream().anyMatch(key -> new String(key, UTF_8).equals("red")));
+    }
+
+    @Test
+    public void testListenerUpdates()
+    {
+        MerkleTree empty = new MerkleTree();
+
+        MerkleTree tree = new MerkleTree();
+        LocalStore store = new InMemoryStore(new ConflictResolver());
+        store.addListener(tree);
+
+        Entry blue = entryOf("blue", 1);
+        store.put(blue);
+        assertNotEquals(tree.getRootHash(), empty.getRootHash());
+
+        Entry newerBlue = entryOf("blue", 2);
+        store.put(newerBlue);
+        MerkleTree expected = new MerkleTree();
+        expected.addAll(ImmutableList.of(newerBlue));
+        assertEquals(tree.getRootHash(), expected.getRootHash());
+
+        store.delete(blue.getKey(), newerBlue.getVersion());
+        assertEquals(tree.getRootHash(), empty.getRootHash());
+    }
+
+    @Test
+    public void testSeedingKeepsNewerChanges()
+    {
+        Entry blue = entryOf("blue", 1);
+        Entry red = entryOf("red", 1);
+        Entry newerBlue = entryOf("blue", 2);
+
+        // the snapshot was read before the listener saw blue replaced and red removed
+        MerkleTree tree = new MerkleTree();
+        tree.onChanges(ImmutableList.of(new StoreChange(blue.getKey(), blue, newerBlue), new StoreChange(red.getKey(), red, null)));
+        tree.addAll(ImmutableList.of(blue, red));
+
+        MerkleTree expected = new MerkleTree();
+        expected.addAll(ImmutableList.of(newerBlue));
+        assertEquals(tree.getRootHash(), expected.getRootHash());
+        assertTrue(tree.getKeys(MerkleTree.bucketOf(red.getKey())).stream().noneMatch(key -> new String(key, UTF_8).equals("red")));
+
+        // once seeded, the key can be written again
+        Entry newerRed = entryOf("red", 2);
+        tree.onChanges(ImmutableList.of(new StoreChange(red.getKey(), null, newerRed)));
+        expected.addAll(ImmutableList.of(newerRed));
+        assertEquals(tree.getRootHash(), expected.getRootHash());
+    }
+
+    @Test
+    public void testRemovalOfOlderVersionIsIgnored()
+    {
+        Entry blue = entryOf("blue", 1);
+        Entry newerBlue = entryOf("blue", 2);
+
+        // the removal of blue is delivered after the put of the newer blue that followed it
+        MerkleTree tree = new MerkleTree();
+        tree.addAll(ImmutableList.of(blue));
+        tree.onChanges(ImmutableList.of(new StoreChange(blue.getKey(), null, newerBlue)));
+        tree.onChanges(ImmutableList.of(new StoreChange(blue.getKey(), blue, null)));
+
+        MerkleTree expected = new MerkleTree();
+        expected.addAll(ImmutableList.of(newerBlue));
+        assertEquals(tree.getRootHash(), expected.getRootHash());
+        assertTrue(tree.getKeys(MerkleTree.bucketOf(blue.getKey())).stream().anyMatch(key -> new String(key, UTF_8).equals("blue")));
+    }
+
+    @Test
+    public void testLevels()
+    {
+        MerkleTree tree = new MerkleTree();
+        tree.addAll(ImmutableList.of(entryOf("blue", 1)));
+
+        for (int level = 0; level <= MerkleTree.DEPTH; level++) {
+            assertEquals(tree.getLevel(level).length, 1 << level);
+        }
+        assertEquals(tree.getLevel(0)[0], tree.getRootHash());
+    }
+
+    private static Entry entryOf(String key, long version)
+    {
+        return new Entry(key.getBytes(UTF_8), "value".getBytes(UTF_8), new Version(version), 0, null);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+import static io.airlift.discovery.store.ReplicationCodec.GZIP;
+import static io.airlift.discovery.store.ReplicationCodec.NONE;
+import static io.airlift.discovery.store.ReplicationCodec.ZSTD;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestReplicationCodec
+{
+    private static final byte[] DATA = "{\"http\":\"http://10.0.0.1:8080\",\"https\":\"https://10.0.0.1:8443\"}".repeat(100).getBytes(UTF_8);
+
+    @Test
+    public void testFromEncoding()
+    {
+        assertEquals(ReplicationCodec.fromEncoding(null), Optional.of(NONE));
+        assertEquals(ReplicationCodec.fromEncoding("identity"), Optional.of(NONE));
+        assertEquals(ReplicationCodec.fromEncoding("gzip"), Optional.of(GZIP));
+        assertEquals(ReplicationCodec.fromEncoding(" ZSTD "), Optional.of(ZSTD));
+        assertEquals(ReplicationCodec.fromEncoding("br"), Optional.empty());
+    }
+
+    @Test
+    public void testNegotiate()
+    {
+        assertEquals(ReplicationCodec.negotiate(null), NONE);
+        assertEquals(ReplicationCodec.negotiate("br, deflate"), NONE);
+        assertEquals(ReplicationCodec.negotiate("zstd"), ZSTD);
+        assertEquals(ReplicationCodec.negotiate("br, gzip;q=0.8, zstd"), GZIP);
+        assertEquals(ReplicationCodec.negotiate("zstd;q=0, gzip"), GZIP);
+        assertEquals(ReplicationCodec.negotiate("identity, gzip"), GZIP);
+    }
+
+    @Test
+    public void testRoundTrip()
+            throws IOException
+    {
+        for (ReplicationCodec codec : new ReplicationCodec[] {GZIP, ZSTD}) {
+            CompressionStats stats = new CompressionStats();
+            byte[] compressed = stats.compress(codec, DATA, 6);
+            assertTrue(compressed.length < DATA.length / 10, codec + " did not compress repeated data");
+
+            try (InputStream input = stats.decompress(codec, new ByteArrayInputStream(compressed))) {
+                assertEquals(input.readAllBytes(), DATA);
+            }
+
+            CompressionStats.CodecStats codecStats = codec == GZIP ? stats.getGzip() : stats.getZstd();
+            assertEquals(codecStats.getUncompressedBytesWritten(), DATA.length);
+            assertEquals(codecStats.getCompressedBytesWritten(), compressed.length);
+            assertEquals(codecStats.getCompressedBytesRead(), compressed.length);
+            assertEquals(codecStats.getUncompressedBytesRead(), DATA.length);
+            assertEquals(codecStats.getCompressTime().getAllTime().getCount(), 1.0);
+            assertEquals(codecStats.getDecompressTime().getAllTime().getCount(), 1.0);
+        }
+    }
+
+    @Test
+    public void testNoneIsPassThrough()
+            throws IOException
+    {
+        CompressionStats stats = new CompressionStats();
+        assertSame(stats.compress(NONE, DATA, 6), DATA);
+        InputStream input = new ByteArrayInputStream(DATA);
+        assertSame(stats.decompress(NONE, input), input);
+    }
+}
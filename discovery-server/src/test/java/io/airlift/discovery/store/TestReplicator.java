@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.client.testing.StaticServiceSelector;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static io.airlift.discovery.client.ServiceDescriptor.serviceDescriptor;
+import static io.airlift.http.client.testing.TestingResponse.contentType;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestReplicator
+{
+    @Test
+    public void testReadEntries()
+            throws Exception
+    {
+        List<Entry> expected = ImmutableList.of(entryOf("apple", 1), entryOf("banana", 2), entryOf("cherry", 3));
+        byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(expected);
+
+        List<Entry> read = new ArrayList<>();
+        long count = Replicator.readEntries(new ByteArrayInputStream(smile), entry -> {
+            // every entry is applied before the next one is decoded
+            assertEquals(read.size(), expected.indexOf(entry));
+            read.add(entry);
+        });
+
+        assertEquals(count, 3);
+        assertEquals(read, expected);
+    }
+
+    @Test
+    public void testReadEntriesEmpty()
+            throws Exception
+    {
+        List<Entry> read = new ArrayList<>();
+
+        assertEquals(Replicator.readEntries(new ByteArrayInputStream(new byte[0]), read::add), 0);
+        byte[] emptyArray = new ObjectMapper(new SmileFactory()).writeValueAsBytes(ImmutableList.of());
+        assertEquals(Replicator.readEntries(new ByteArrayInputStream(emptyArray), read::add), 0);
+        assertTrue(read.isEmpty());
+    }
+
+    @Test
+    public void testFullSyncWithPeerWithoutChangesOrMerkle()
+            throws Exception
+    {
+        List<Entry> remoteEntries = ImmutableList.of(entryOf("apple", 1), entryOf("banana", 2));
+        byte[] smile = new ObjectMapper(new SmileFactory()).writeValueAsBytes(remoteEntries);
+
+        // a peer that only has the original endpoints: PUT /{key}, POST and GET of all entries
+        List<String> requests = new CopyOnWriteArrayList<>();
+        TestingHttpClient httpClient = new TestingHttpClient(request -> {
+            String path = request.getUri().getPath();
+            requests.add(request.getMethod() + " " + path);
+            if (request.getMethod().equals("GET") && path.equals("/v1/store/test")) {
+                return new TestingResponse(HttpStatus.OK, contentType(MediaType.create("application", "x-jackson-smile")), smile);
+            }
+            return new TestingResponse(HttpStatus.METHOD_NOT_ALLOWED, ImmutableListMultimap.of(), new byte[0]);
+        });
+
+        ServiceDescriptor peer = serviceDescriptor("discovery")
+                .setNodeId("peer")
+                .addProperty("http", "http://peer")
+                .build();
+        LocalStore localStore = new InMemoryStore(new ConflictResolver());
+        Replicator replicator = new Replicator(
+                "test",
+                new NodeInfo("test"),
+                new StaticServiceSelector(peer),
+                httpClient,
+                localStore,
+                new MerkleTree(),
+                new StoreConfig(),
+                new CompressionStats());
+
+        replicator.start();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (replicator.getLastReplicationTimestamp() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        finally {
+            replicator.shutdown();
+        }
+
+        assertEquals(replicator.getFullSyncs(), 1);
+        assertEquals(replicator.getEntriesPulled(), 2);
+        assertEquals(replicator.getPeerFailures(), 0);
+        assertEquals(ImmutableSet.copyOf(localStore.getAll()), ImmutableSet.copyOf(remoteEntries));
+        assertEquals(requests, ImmutableList.of(
+                "GET /v1/store/test/changes",
+                "GET /v1/store/test/merkle",
+                "GET /v1/store/test"));
+    }
+
+    @Test
+    public void testLogPositionsOfDepartedPeersAreRemoved()
+            throws Exception
+    {
+        byte[] changes = new ObjectMapper(new SmileFactory()).writeValueAsBytes(new StoreChanges("log", 0, true, ImmutableList.of()));
+        TestingHttpClient httpClient = new TestingHttpClient(request ->
+                new TestingResponse(HttpStatus.OK, contentType(MediaType.create("application", "x-jackson-smile")), changes));
+
+        ServiceDescriptor apple = serviceDescriptor("discovery")
+                .setNodeId("apple")
+                .addProperty("http", "http://apple")
+                .build();
+        ServiceDescriptor banana = serviceDescriptor("discovery")
+                .setNodeId("banana")
+                .addProperty("http", "http://banana")
+                .build();
+        AtomicReference<List<ServiceDescriptor>> peers = new AtomicReference<>(ImmutableList.of(apple, banana));
+        ServiceSelector selector = new ServiceSelector()
+        {
+            @Override
+            public String getType()
+            {
+                return "discovery";
+            }
+
+            @Override
+            public String getPool()
+            {
+                return "general";
+            }
+
+            @Override
+            public List<ServiceDescriptor> selectAllServices()
+            {
+                return peers.get();
+            }
+
+            @Override
+            public ListenableFuture<List<ServiceDescriptor>> refresh()
+            {
+                return immediateFuture(peers.get());
+            }
+        };
+
+        Replicator replicator = new Replicator(
+                "test",
+                new NodeInfo("test"),
+                selector,
+                httpClient,
+                new InMemoryStore(new ConflictResolver()),
+                new MerkleTree(),
+                new StoreConfig().setReplicationInterval(new Duration(10, TimeUnit.MILLISECONDS)),
+                new CompressionStats());
+
+        replicator.start();
+        try {
+            waitFor(() -> replicator.getTrackedPeers() == 2);
+            assertEquals(replicator.getTrackedPeers(), 2);
+
+            peers.set(ImmutableList.of(apple));
+            waitFor(() -> replicator.getTrackedPeers() == 1);
+            assertEquals(replicator.getTrackedPeers(), 1);
+        }
+        finally {
+            replicator.shutdown();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static Entry entryOf(String key, long version)
+    {
+        return new Entry(key.getBytes(UTF_8), "value".getBytes(UTF_8), new Version(version), 0, null);
+    }
+}
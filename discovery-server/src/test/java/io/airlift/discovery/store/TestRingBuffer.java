@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestRingBuffer
+{
+    @Test
+    public void testCapacityIsPowerOfTwo()
+    {
+        assertEquals(new RingBuffer<>(1).capacity(), 1);
+        assertEquals(new RingBuffer<>(3).capacity(), 4);
+        assertEquals(new RingBuffer<>(1000).capacity(), 1024);
+    }
+
+    @Test
+    public void testFifo()
+    {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        assertNull(ring.poll());
+
+        // wrap around several times
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ring.offer(i));
+            }
+            assertFalse(ring.offer(4));
+            assertEquals(ring.size(), 4);
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(ring.poll().intValue(), i);
+            }
+            assertNull(ring.poll());
+            assertEquals(ring.size(), 0);
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers()
+            throws Exception
+    {
+        int producers = 8;
+        int elementsPerProducer = 10_000;
+        RingBuffer<Integer> ring = new RingBuffer<>(64);
+
+        ExecutorService executor = newFixedThreadPool(producers, daemonThreadsNamed("test-producer-%s"));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int producer = 0; producer < producers; producer++) {
+                int first = producer * elementsPerProducer;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < first + elementsPerProducer; i++) {
+                        while (!ring.offer(i)) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                }));
+            }
+
+            Set<Integer> received = new HashSet<>();
+            int[] lastByProducer = new int[producers];
+            Arrays.fill(lastByProducer, -1);
+            while (received.size() < producers * elementsPerProducer) {
+                Integer element = ring.poll();
+                if (element == null) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                assertTrue(received.add(element), "duplicate element " + element);
+
+                // elements of a single producer are received in order
+                int producer = element / elementsPerProducer;
+                assertTrue(element > lastByProducer[producer]);
+                lastByProducer[producer] = element;
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertNull(ring.poll());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.configuration.testing.ConfigAssertions;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+
+public class TestStoreConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(StoreConfig.class)
+                .setTombstoneMaxAge(new Duration(1, TimeUnit.DAYS))
+                .setGarbageCollectionInterval(new Duration(1, TimeUnit.HOURS))
+                .setMaxBatchSize(1000)
+                .setQueueSize(1000)
+                .setRemoteUpdateInterval(new Duration(5, TimeUnit.SECONDS))
+                .setReplicationInterval(new Duration(1, TimeUnit.MINUTES))
+                .setChangeLogSize(10_000)
+                .setReplicationConcurrency(8)
+                .setReplicationPeerTimeout(new Duration(30, TimeUnit.SECONDS))
+                .setReplicationPageSize(1000)
+                .setBatchLinger(new Duration(5, TimeUnit.MILLISECONDS))
+                .setTargetBatchBytes(DataSize.of(1, MEGABYTE))
+                .setBatchLatencyTarget(new Duration(500, TimeUnit.MILLISECONDS))
+                .setSenderThreads(4)
+                .setMaxInFlightBatches(4)
+                .setRetryMinBackoff(new Duration(100, TimeUnit.MILLISECONDS))
+                .setRetryMaxBackoff(new Duration(10, TimeUnit.SECONDS))
+                .setBreakerFailureThreshold(5)
+                .setBreakerOpenTime(new Duration(30, TimeUnit.SECONDS))
+                .setCompression(ReplicationCodec.NONE)
+                .setCompressionLevel(6)
+                .setGossipEnabled(false)
+                .setGossipFanout(3)
+                .setGossipRumorRounds(4)
+                .setGossipInterval(new Duration(200, TimeUnit.MILLISECONDS)));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = ImmutableMap.<String, String>builder()
+                .put("store.tombstone-max-age", "2d")
+                .put("store.gc-interval", "2h")
+                .put("store.remote.max-batch-size", "50")
+                .put("store.remote.queue-size", "60")
+                .put("store.remote.update-interval", "7s")
+                .put("store.remote.replication-interval", "3m")
+                .put("store.change-log-size", "500")
+                .put("store.remote.replication-concurrency", "3")
+                .put("store.remote.replication-peer-timeout", "9s")
+                .put("store.remote.replication-page-size", "70")
+                .put("store.remote.batch-linger", "20ms")
+                .put("store.remote.target-batch-size", "64kB")
+                .put("store.remote.batch-latency-target", "2s")
+                .put("store.remote.sender-threads", "16")
+                .put("store.remote.max-in-flight-batches", "12")
+                .put("store.remote.retry-min-backoff", "250ms")
+                .put("store.remote.retry-max-backoff", "1m")
+                .put("store.remote.breaker-failure-threshold", "9")
+                .put("store.remote.breaker-open-time", "2m")
+                .put("store.remote.compression", "ZSTD")
+                .put("store.remote.compression-level", "1")
+                .put("store.remote.gossip-enabled", "true")
+                .put("store.remote.gossip-fanout", "5")
+                .put("store.remote.gossip-rumor-rounds", "7")
+                .put("store.remote.gossip-interval", "1s")
+                .build();
+
+        StoreConfig expected = new StoreConfig()
+                .setTombstoneMaxAge(new Duration(2, TimeUnit.DAYS))
+                .setGarbageCollectionInterval(new Duration(2, TimeUnit.HOURS))
+                .setMaxBatchSize(50)
+                .setQueueSize(60)
+                .setRemoteUpdateInterval(new Duration(7, TimeUnit.SECONDS))
+                .setReplicationInterval(new Duration(3, TimeUnit.MINUTES))
+                .setChangeLogSize(500)
+                .setReplicationConcurrency(3)
+                .setReplicationPeerTimeout(new Duration(9, TimeUnit.SECONDS))
+                .setReplicationPageSize(70)
+                .setBatchLinger(new Duration(20, TimeUnit.MILLISECONDS))
+                .setTargetBatchBytes(DataSize.of(64, KILOBYTE))
+                .setBatchLatencyTarget(new Duration(2, TimeUnit.SECONDS))
+                .setSenderThreads(16)
+                .setMaxInFlightBatches(12)
+                .setRetryMinBackoff(new Duration(250, TimeUnit.MILLISECONDS))
+                .setRetryMaxBackoff(new Duration(1, TimeUnit.MINUTES))
+                .setBreakerFailureThreshold(9)
+                .setBreakerOpenTime(new Duration(2, TimeUnit.MINUTES))
+                .setCompression(ReplicationCodec.ZSTD)
+                .setCompressionLevel(1)
+                .setGossipEnabled(true)
+                .setGossipFanout(5)
+                .setGossipRumorRounds(7)
+                .setGossipInterval(new Duration(1, TimeUnit.SECONDS));
+
+        ConfigAssertions.assertFullMapping(properties, expected);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.discovery.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Longs;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestStoreResource
+{
+    private LocalStore store;
+    private ChangeLog changeLog;
+    private StoreResource resource;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        store = new InMemoryStore(new ConflictResolver());
+        MerkleTree tree = new MerkleTree();
+        store.addListener(tree);
+        changeLog = new ChangeLog(100);
+        store.addListener(changeLog);
+        resource = new StoreResource(ImmutableMap.of("test", store), ImmutableMap.of("test", tree), ImmutableMap.of("test", changeLog), ImmutableMap.of("test", new StoreConfig()));
+    }
+
+    @Test
+    public void testCompareDigest()
+    {
+        Entry same = entryOf("same", 5);
+        Entry newerHere = entryOf("newer-here", 7);
+        Entry newerThere = entryOf("newer-there", 3);
+        Entry onlyHere = entryOf("only-here", 1);
+        store.put(same);
+        store.put(newerHere);
+        store.put(newerThere);
+        store.put(onlyHere);
+
+        byte[] onlyThere = "only-there".getBytes(UTF_8);
+        DigestRequest digest = new DigestRequest(
+                allBuckets(),
+                new long[] {hash(same), hash(newerHere), hash(newerThere), DigestRequest.hashKey(onlyThere)},
+                new long[] {5, 6, 4, 1});
+
+        Response response = resource.compareDigest("test", digest);
+        DigestResponse result = (DigestResponse) response.getEntity();
+
+        assertEquals(result.getEntries().stream().map(entry -> new String(entry.getKey(), UTF_8)).sorted().toList(), ImmutableList.of("newer-here", "only-here"));
+        assertEquals(Longs.asList(result.getWantedKeyHashes()).stream().sorted().toList(),
+                Longs.asList(hash(newerThere), DigestRequest.hashKey(onlyThere)).stream().sorted().toList());
+    }
+
+    @Test
+    public void testCompareDigestOnlyConsidersRequestedBuckets()
+    {
+        Entry blue = entryOf("blue", 1);
+        store.put(blue);
+
+        int bucket = (MerkleTree.bucketOf(blue.getKey()) + 1) % MerkleTree.LEAF_COUNT;
+        DigestResponse result = (DigestResponse) resource.compareDigest("test", new DigestRequest(ImmutableList.of(bucket), new long[0], new long[0])).getEntity();
+
+        assertEquals(result.getEntries().size(), 0);
+        assertEquals(result.getWantedKeyHashes().length, 0);
+    }
+
+    @Test
+    public void testCompareDigestUnknownStore()
+    {
+        Response response = resource.compareDigest("unknown", new DigestRequest(ImmutableList.of(), new long[0], new long[0]));
+        assertEquals(response.getStatus(), Response.Status.NOT_FOUND.getStatusCode());
+    }
+
+    @Test
+    public void testGetChanges()
+    {
+        store.put(entryOf("blue", 1));
+
+        // readers without a position only get the current position
+        StoreChanges changes = (StoreChanges) resource.getChanges("test", null, 0).getEntity();
+        assertFalse(changes.isComplete());
+        assertEquals(changes.getLogId(), changeLog.getLogId());
+        assertEquals(changes.getSequence(), 1);
+        assertEquals(changes.getEntries().size(), 0);
+
+        Entry red = entryOf("red", 1);
+        store.put(red);
+        Entry newerBlue = entryOf("blue", 2);
+        store.put(newerBlue);
+
+        changes = (StoreChanges) resource.getChanges("test", changes.getLogId(), changes.getSequence()).getEntity();
+        assertTrue(changes.isComplete());
+        assertEquals(changes.getSequence(), 3);
+        assertEquals(changes.getEntries(), ImmutableList.of(red, newerBlue));
+
+        // positions of another log require a full synchronization
+        changes = (StoreChanges) resource.getChanges("test", "unknown", 1).getEntity();
+        assertFalse(changes.isComplete());
+        assertEquals(changes.getSequence(), 3);
+    }
+
+    @Test
+    public void testGetAllPages()
+            throws Exception
+    {
+        Entry apple = entryOf("apple", 1);
+        Entry banana = entryOf("banana", 1);
+        Entry cherry = entryOf("cherry", 1);
+        store.put(cherry);
+        store.put(apple);
+        store.put(banana);
+
+        assertEquals(getAll(null, null), ImmutableList.of(apple, banana, cherry));
+        assertEquals(getAll(null, 2), ImmutableList.of(apple, banana));
+        assertEquals(getAll("banana", 2), ImmutableList.of(cherry));
+        assertEquals(getAll("cherry", 2), ImmutableList.of());
+
+        assertEquals(resource.getAllSmile("test", null, 0).getStatus(), 400);
+        assertEquals(resource.getAllSmile("test", "not base64!", null).getStatus(), 400);
+        assertEquals(resource.getAllSmile("unknown", null, null).getStatus(), 404);
+    }
+
+    private List<Entry> getAll(String afterKey, Integer limit)
+            throws Exception
+    {
+        String after = null;
+        if (afterKey != null) {
+            after = Base64.getUrlEncoder().withoutPadding().encodeToString(afterKey.getBytes(UTF_8));
+        }
+        StreamingOutput output = (StreamingOutput) resource.getAllSmile("test", after, limit).getEntity();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        output.write(out);
+        List<Entry> entries = new ArrayList<>();
+        Replicator.readEntries(new ByteArrayInputStream(out.toByteArray()), entries::add);
+        return entries;
+    }
+
+    private static List<Integer> allBuckets()
+    {
+        ImmutableList.Builder<Integer> buckets = ImmutableList.builder();
+        for (int bucket = 0; bucket < MerkleTree.LEAF_COUNT; bucket++) {
+            buckets.add(bucket);
+        }
+        return buckets.build();
+    }
+
+    private static long hash(Entry entry)
+    {
+        return DigestRequest.hashKey(entry.getKey());
+    }
+
+    private static Entry entryOf(String key, long version)
+    {
+        return new Entry(key.getBytes(UTF_8), "value".getBytes(UTF_8), new Version(version), 0, null);
+    }
+}